@@ -0,0 +1,115 @@
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the simulation loop stays inside its allocation budget: bytes allocated
+ * per simulated slot and per finished frame, on the simulation's thread, in a fixed
+ * seeded run of the driver's network. mvn test runs it, and a scenario over budget
+ * fails the build.
+ *
+ * Setup (building the network, loading classes, the first JIT pass) is left out by
+ * running the same seed for a short and a long time and charging only the difference
+ * to the extra slots. Frame records are rendered on this thread but written on the
+ * trace writer's, so only the rendering counts.
+ * @author Justin
+ *
+ */
+public class AllocationBudgetTest {
+	private static final long SEED = 570,
+							  SHORT_SECONDS = 2,
+							  LONG_SECONDS = 6;
+	private static final int PASSES = 3;
+	
+	//About a tenth over what both measure today, 41 to 44 bytes a slot and 145 to 154 a
+	//frame. Nearly all of it is state the driver's network keeps growing, since it
+	//can't keep up with its arrivals: queued arrival times, frames in flight, routing
+	//tables cached. Lower them whenever the hot path gets leaner.
+	private static final double BYTES_PER_SLOT = 48,
+								BYTES_PER_FRAME = 170;
+	
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final File DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "allocation-budget");
+	
+	/**
+	 * What one run allocated and how many frames finished in it.
+	 */
+	private static class Run {
+		long bytes,
+			 frames;
+	}
+	
+	@BeforeClass
+	public static void countAllocations() {
+		assumeTrue("this JVM can't count allocated bytes", THREADS.isThreadAllocatedMemorySupported());
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+	}
+	
+	@Test
+	public void quiet() {
+		check("quiet", false);
+	}
+	
+	@Test
+	public void frameRecords() {
+		check("frame records", true);
+	}
+	
+	private static void check(String scenario, boolean writingFrames) {
+		run(writingFrames, SHORT_SECONDS);		//warm up
+	
+		//How much the JIT manages to keep off the heap varies a little from pass to
+		//pass, so take the leanest of a few.
+		double bytes = Double.MAX_VALUE,
+			   frames = 0;
+		for (int pass = 0; pass < PASSES; ++pass) {
+			Run shortRun = run(writingFrames, SHORT_SECONDS),
+				longRun = run(writingFrames, LONG_SECONDS);
+			if (longRun.bytes - shortRun.bytes < bytes) {
+				bytes = longRun.bytes - shortRun.bytes;
+				frames = longRun.frames - shortRun.frames;
+			}
+		}
+	
+		double slots = (LONG_SECONDS - SHORT_SECONDS) * MetricsCollector.SLOTS_PER_SECOND,
+			   perSlot = bytes / slots,
+			   perFrame = frames > 0 ? bytes / frames : 0;
+		String result = String.format("%s: %.1f bytes/slot (budget %.0f), %.1f bytes/frame (budget %.0f)",
+				scenario, perSlot, BYTES_PER_SLOT, perFrame, BYTES_PER_FRAME);
+		System.out.println(result);
+		assertTrue(result, perSlot <= BYTES_PER_SLOT && perFrame <= BYTES_PER_FRAME);
+	}
+	
+	private static Run run(boolean writingFrames, long seconds) {
+		clearDirectory();		//trace files are appended to, so start each run from nothing
+		SimulationContext context = new SimulationContext(DIRECTORY.getPath() + File.separator, SEED);
+		context.setWritingFrames(writingFrames);
+		final Run run = new Run();
+		context.getEvents().subscribeFrameFinished(new SimulationEvents.FrameFinished() {
+			@Override
+			public void onFrameFinished(Frame frame) {
+				++run.frames;
+			}
+		});
+	
+		long thread = Thread.currentThread().getId(),
+			 before = THREADS.getThreadAllocatedBytes(thread);
+		SimulationDriver.measure(context, seconds);
+		run.bytes = THREADS.getThreadAllocatedBytes(thread) - before;
+		return run;
+	}
+	
+	private static void clearDirectory() {
+		DIRECTORY.mkdirs();
+		File[] files = DIRECTORY.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+	}
+}
@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import benchmarks.Workload;
+
+/**
+ * The work behind each of the JMH benchmarks in benchmarks.EngineBenchmark, set up
+ * here because everything it touches is in the default package. Each operate does
+ * one operation and returns something that depends on it, for JMH to consume.
+ * @author Justin
+ *
+ */
+public class EngineWorkloads {
+	
+	private EngineWorkloads() {}
+	
+	/**
+	 * @param name	clock.wheel, clock.heap, bus.propagation, routing.full, routing.incremental,
+	 * 				routing.fewLinks, routing.standard, poisson.next, topology.build,
+	 * 				simulate.skip, simulate.everySlot or simulate.lans.
+	 * @param param	The size; what it means depends on the workload.
+	 */
+	public static Workload create(String name, String param) {
+		switch (name) {
+		case "clock.wheel":			return new ClockHold(Integer.parseInt(param), true);
+		case "clock.heap":			return new ClockHold(Integer.parseInt(param), false);
+		case "bus.propagation":		return new BusPropagation(Integer.parseInt(param));
+		case "routing.full":		return new DijkstraUpdate(Integer.parseInt(param), false, 1);
+		case "routing.incremental":	return new DijkstraUpdate(Integer.parseInt(param), true, 1);
+		case "routing.fewLinks":	return new DijkstraUpdate(Integer.parseInt(param), true, 64);
+		case "routing.standard":	return new StandardRouting(Integer.parseInt(param));
+		case "poisson.next":		return new PoissonNext(Double.parseDouble(param));
+		case "topology.build":		return new TopologyBuild(Integer.parseInt(param));
+		case "simulate.skip":		return new FullRun(Long.parseLong(param), true, Topology.standard());
+		case "simulate.everySlot":	return new FullRun(Long.parseLong(param), false, Topology.standard());
+		case "simulate.lans":		return new FullRun(Long.parseLong(param), true, Topology.lans(8, 8));
+		default:
+			throw new IllegalArgumentException("EngineWorkloads: no workload " + name + ".");
+		}
+	}
+	
+	/**
+	 * Clock.addStep and step with a fixed number of events always pending: every event
+	 * schedules another up to two routing updates ahead, like transmissions and slots do.
+	 * Param: events pending. Op: one clock step.
+	 */
+	private static class ClockHold implements Workload, EventHandler {
+		private final SplittableRandom rand;
+		private final Clock clock;
+	
+		ClockHold(int pending, boolean wheel) {
+			rand = new SplittableRandom(pending);
+			clock = new Clock();
+			clock.useTimingWheel(wheel);
+			clock.reset();
+			clock.setDuration(Long.MAX_VALUE / 2000000);
+			for (int i = 0; i < pending; ++i)
+				schedule();
+		}
+	
+		private void schedule() {
+			clock.addStep(1 + rand.nextInt(2 * (int) Clock.slotsToTime(Clock.slotsPerTableUpdate())),
+					EventType.TRANSMISSION_FINISH, this);
+		}
+	
+		@Override
+		public void handleEvent(Event event) {
+			schedule();
+		}
+	
+		@Override
+		public long operate() {
+			clock.fireEvents(EventType.SAMPLE);
+			clock.step();
+			return clock.time();
+		}
+	}
+	
+	/**
+	 * Bus.acceptFrame and delivery with many frames propagating at once. Each frame is put
+	 * straight back on the bus when it's delivered, so the number in flight stays the same.
+	 * Param: frames in flight. Op: one clock step.
+	 */
+	private static class BusPropagation implements Workload {
+		private final SimulationContext context;
+		private final Clock clock;
+		private long delivered;
+	
+		BusPropagation(int frames) {
+			context = new SimulationContext("", frames);
+			context.setWritingFrames(false);
+			clock = context.getClock();
+			clock.reset();
+			clock.setDuration(Long.MAX_VALUE / 2000000);
+			final Bus bus = new Bus("BUS", context);
+			NetworkElementInterface echo = new Echo() {
+				@Override
+				public void acceptFrameFromNode(Frame frame) {
+					++delivered;
+					bus.claim();
+					bus.acceptFrame(frame);
+				}
+			};
+			for (int i = 0; i < frames; ++i) {
+				Frame frame = new Frame(i, context);
+				frame.setValues(null, null, 0);
+				frame.setNextHop(echo);
+				frame.setNextHop(echo);		//now the previous hop too, for the ACK
+				clock.addStep(1 + i % 20, EventType.SLOT, new Starter(bus, frame));
+			}
+		}
+	
+		@Override
+		public long operate() {
+			clock.fireEvents(EventType.SAMPLE);
+			context.updateBusStatuses();
+			clock.step();
+			return delivered;
+		}
+	}
+	
+	/**
+	 * Puts a frame on the bus for the first time.
+	 */
+	private static class Starter implements EventHandler {
+		private final Bus bus;
+		private final Frame frame;
+	
+		Starter(Bus bus, Frame frame) {
+			this.bus = bus;
+			this.frame = frame;
+		}
+	
+		@Override
+		public void handleEvent(Event event) {
+			bus.claim();
+			bus.acceptFrame(frame);
+		}
+	}
+	
+	/**
+	 * An element that does nothing, for the workloads to fill in.
+	 */
+	private static class Echo implements NetworkElementInterface {
+		public void handleEvent(Event event) {}
+		public void addBus(Bus b) {}
+		public void generateFrames() {}
+		public void sendFrameIfReady() {}
+		public void checkCollision() {}
+		public void finishTransmission() {}
+		public void acceptFrameFromNode(Frame f) {}
+		public void acceptFrameFromRouter(Frame f) {}
+		public void acceptACK(Frame f) {}
+		public String getName() { return "echo"; }
+		public int getElementID() { return -1; }
+		public int getBuffer() { return 0; }
+	}
+	
+	/**
+	 * A routing update on a ring of routers with a random chord from each: every link draws
+	 * a new cost, then every router updates its table, the way the driver does it. Full
+	 * redoes every table from scratch; incremental only what the new costs touch. fewLinks
+	 * is incremental, but only one link in 64 (a different one each time) draws a new cost.
+	 * Param: routers. Op: one routing update of every router.
+	 */
+	private static class DijkstraUpdate implements Workload {
+		private final int share;		//One link in this many draws a new cost each update.
+		private final ArrayList<Router> routers = new ArrayList<Router>();
+		private final ArrayList<Bus> links = new ArrayList<Bus>();
+		private int updates = 0;
+	
+		DijkstraUpdate(int count, boolean incremental, int share) {
+			this.share = share;
+			SimulationContext context = new SimulationContext("", count);
+			SplittableRandom rand = new SplittableRandom(count);
+			for (int i = 0; i < count; ++i)
+				routers.add(new Router("R" + i, new DijkstrasAlgorithm(context), context));
+			for (int i = 0; i < count; ++i) {
+				link(context, i, (i + 1) % count);
+				link(context, i, rand.nextInt(count));
+			}
+			context.getRoutingEngine(routers).setIncremental(incremental);
+		}
+	
+		private void link(SimulationContext context, int a, int b) {
+			if (a == b) return;
+			Link link = new Link("L" + a + "-" + b + "#" + links.size(), context);
+			link.addRouter(routers.get(a));
+			link.addRouter(routers.get(b));
+			links.add(link);
+		}
+	
+		@Override
+		public long operate() {
+			for (int i = updates++ % share; i < links.size(); i += share)
+				((Link) links.get(i)).randomCost();
+			for (Router router : routers)
+				router.updateTable(routers, links);
+			return routers.get(0).getRoutingCost(routers.get(routers.size() - 1));
+		}
+	}
+	
+	/**
+	 * The driver's routing update on the standard network: every link draws a new cost,
+	 * then every router updates its table. Its four links' costs come round again often
+	 * enough for the RoutingTableCache to find many of them.
+	 * Param: tables the cache holds (0 for none). Op: one routing update of every router.
+	 */
+	private static class StandardRouting implements Workload {
+		private final ArrayList<Router> routers;
+		private final ArrayList<Bus> busses;
+	
+		StandardRouting(int tables) {
+			SimulationContext context = new SimulationContext("", 1);
+			context.setWritingFrames(false);
+			TopologyBuilder network = Topology.standard().build(context);
+			routers = network.getRouters();
+			busses = network.getBusses();
+			context.getRoutingEngine(routers).setCacheCapacity(tables);
+		}
+	
+		@Override
+		public long operate() {
+			for (Bus bus : busses)
+				if (bus instanceof Link)
+					((Link) bus).randomCost();
+			for (Router router : routers)
+				router.updateTable(routers, busses);
+			return routers.get(0).getRoutingCost(routers.get(routers.size() - 1));
+		}
+	}
+	
+	/**
+	 * PoissonDistribution.next, one slot's arrivals.
+	 * Param: the arrival rate per slot. Op: one draw.
+	 */
+	private static class PoissonNext implements Workload {
+		private final PoissonDistribution poisson;
+	
+		PoissonNext(double rate) {
+			poisson = new PoissonDistribution(rate, new SplittableRandom(570));
+		}
+	
+		@Override
+		public long operate() {
+			return poisson.next();
+		}
+	}
+	
+	/**
+	 * Building a random mesh of LANs, ten nodes and two routers to a LAN, without frame
+	 * records. Building should take time in proportion to the size of the network.
+	 * Param: nodes. Op: one network built.
+	 */
+	private static class TopologyBuild implements Workload {
+		private final Topology topology;
+		private final int nodes;
+	
+		TopologyBuild(int nodes) {
+			this.nodes = nodes;
+			topology = Topology.mesh(nodes / 10, 10, nodes / 10, nodes);
+		}
+	
+		@Override
+		public long operate() {
+			SimulationContext context = new SimulationContext("", nodes);
+			context.setWritingFrames(false);
+			TopologyBuilder network = topology.build(context);
+			return network.getNodes().size() + network.getRouters().size() + network.getBusses().size();
+		}
+	}
+	
+	/**
+	 * A whole run of a network without frame records, each with the next seed.
+	 * Param: simulated seconds per run. Op: one run.
+	 */
+	private static class FullRun implements Workload {
+		private final long seconds;
+		private final boolean skip;
+		private final Topology topology;
+		private long seed = 0;
+	
+		FullRun(long seconds, boolean skip, Topology topology) {
+			this.seconds = seconds;
+			this.skip = skip;
+			this.topology = topology;
+		}
+	
+		@Override
+		public long operate() {
+			SimulationContext context = new SimulationContext("", ++seed);
+			context.setWritingFrames(false);
+			context.getClock().skipIdleSlots(skip);
+			context.setTopology(topology);
+			return SimulationDriver.replicate(context, seconds).getValues().size();
+		}
+	}
+}
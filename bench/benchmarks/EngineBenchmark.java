@@ -0,0 +1,137 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the engine's hot spots and of whole runs, each at more than one size.
+ * Every benchmark takes a state whose parameters pick the workload and its size; see
+ * EngineWorkloads for what each one does.
+ *
+ * 		mvn -Pbench test-compile exec:exec -Djmh.args="[JMH options] [name regexps]"
+ *
+ * e.g. -Djmh.args="-f 1 -p routers=4,256 routing". A whole run is far longer than the
+ * other operations, so simulate reports the average time per run instead.
+ * @author Justin
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineBenchmark {
+	
+	/** Clock.addStep and step with a fixed number of events always pending. */
+	@State(Scope.Thread)
+	public static class ClockState {
+		@Param({"wheel", "heap"}) String queue;
+		@Param({"64", "4096"}) String pending;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("clock." + queue, pending); }
+	}
+	
+	/** Bus.acceptFrame and delivery with many frames propagating at once. */
+	@State(Scope.Thread)
+	public static class BusState {
+		@Param({"16", "1024"}) String frames;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("bus.propagation", frames); }
+	}
+	
+	/** A routing update on a ring of routers with a chord from each. */
+	@State(Scope.Thread)
+	public static class RoutingState {
+		@Param({"full", "incremental", "fewLinks"}) String update;
+		@Param({"4", "16", "64", "256"}) String routers;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("routing." + update, routers); }
+	}
+	
+	/** The driver's routing update on the standard network, with or without a table cache. */
+	@State(Scope.Thread)
+	public static class StandardRoutingState {
+		@Param({"0", "16384"}) String cacheTables;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("routing.standard", cacheTables); }
+	}
+	
+	/** One slot's Poisson arrivals. */
+	@State(Scope.Thread)
+	public static class PoissonState {
+		@Param({"0.01", "0.5"}) String rate;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("poisson.next", rate); }
+	}
+	
+	/** Building a random mesh of LANs. */
+	@State(Scope.Thread)
+	public static class TopologyState {
+		@Param({"1000", "10000"}) String nodes;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("topology.build", nodes); }
+	}
+	
+	/** A whole two-second run of the standard network, or of eight LANs of eight. */
+	@State(Scope.Thread)
+	public static class SimulateState {
+		@Param({"skip", "everySlot", "lans"}) String run;
+		Workload workload;
+	
+		@Setup
+		public void setup() { workload = Workload.create("simulate." + run, "2"); }
+	}
+	
+	/** Ops are clock steps: fire what's due, then move on to the next event. */
+	@Benchmark
+	public long clock(ClockState state) { return state.workload.operate(); }
+	
+	/** Ops are clock steps, each delivering what's due. */
+	@Benchmark
+	public long bus(BusState state) { return state.workload.operate(); }
+	
+	/** Ops are routing updates of every router. */
+	@Benchmark
+	public long routing(RoutingState state) { return state.workload.operate(); }
+	
+	/** Ops are routing updates of every router. */
+	@Benchmark
+	public long routingStandard(StandardRoutingState state) { return state.workload.operate(); }
+	
+	/** Ops are draws. */
+	@Benchmark
+	public long poisson(PoissonState state) { return state.workload.operate(); }
+	
+	/** Ops are whole networks built. */
+	@Benchmark
+	public long topology(TopologyState state) { return state.workload.operate(); }
+	
+	/** Ops are whole runs of two simulated seconds. */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long simulate(SimulateState state) { return state.workload.operate(); }
+}
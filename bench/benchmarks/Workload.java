@@ -0,0 +1,34 @@
+package benchmarks;
+
+/**
+ * One of the engine operations the benchmarks measure, set up at a given size.
+ *
+ * JMH won't generate code for benchmarks in the default package, and code in a named
+ * package can't name the simulation's classes, which are all in the default package.
+ * So the workloads themselves live next to the simulation (EngineWorkloads) and
+ * implement this, and the benchmarks only look them up by name, once, in setup.
+ * The measured call is an ordinary interface call.
+ * @author Justin
+ *
+ */
+public interface Workload {
+	
+	/**
+	 * Do one operation.
+	 * @return	Something that depends on the work, for the benchmark to hand to JMH.
+	 */
+	long operate();
+	
+	/**
+	 * @param name	Which workload, e.g. "clock.wheel"; see EngineWorkloads.create.
+	 * @param param	Its size.
+	 */
+	static Workload create(String name, String param) {
+		try {
+			return (Workload) Class.forName("EngineWorkloads")
+					.getMethod("create", String.class, String.class).invoke(null, name, param);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Workload: can't set up " + name + " (" + param + ").", e);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+import java.util.SplittableRandom;
+
+/**
+ * Walker's alias method (Vose's construction): after building the table once, drawing
+ * from any discrete distribution takes one uniform number and one lookup.
+ */
+public class AliasTable {
+	private final double[] prob;
+	private final int[] alias;
+	private final int offset;		//Value of the first weight.
+	
+	/**
+	 * @param weights	Relative probabilities of offset, offset + 1, and so on. Needn't sum to one.
+	 * @param offset	The value the first weight is for.
+	 */
+	public AliasTable(double[] weights, int offset) {
+		int n = weights.length;
+		this.prob = new double[n];
+		this.alias = new int[n];
+		this.offset = offset;
+		
+		double total = 0;
+		for (double w : weights) 
+			total += w;
+		
+		double[] scaled = new double[n];
+		int[] small = new int[n], 
+			  large = new int[n];
+		int smalls = 0, larges = 0;
+		for (int i = 0; i < n; ++i) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1) small[smalls++] = i;
+			else large[larges++] = i;
+		}
+		
+		while (smalls > 0 && larges > 0) {
+			int s = small[--smalls],
+				l = large[--larges];
+			prob[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] -= 1 - scaled[s];
+			if (scaled[l] < 1) small[smalls++] = l;
+			else large[larges++] = l;
+		}
+		
+		//Whatever's left is 1 up to rounding.
+		while (larges > 0) prob[large[--larges]] = 1;
+		while (smalls > 0) prob[small[--smalls]] = 1;
+	}
+	
+	public int sample(SplittableRandom rand) {
+		double u = rand.nextDouble() * prob.length;
+		int i = (int) u;
+		return offset + (u - i < prob[i] ? i : alias[i]);
+	}
+}
@@ -0,0 +1,140 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary trace format. A file is a fixed header, then one 8-byte row per trace
+ * event, then two small tables, then a dictionary of element names. Rows for one frame
+ * are always consecutive and in the order they happened. Rows are fixed-width, so
+ * BinaryTraceReader can look at any row without reading the ones before it, and the
+ * file comes out a little smaller than the same records in CSV.
+ *
+ * Header (HEADER_SIZE bytes, big-endian):
+ * 		int magic, short version, short row size, long row count, long tables offset
+ * Row (ROW_SIZE bytes):
+ * 		int time in microseconds after its block's base time (may be negative), unsigned
+ * 		short element ID (NO_ELEMENT if none), byte TraceEvent ordinal, unsigned byte
+ * 		collisions (WIDE if 255 or more)
+ * Tables:
+ * 		int block count, then for each block long first row and long base time; a new
+ * 		block starts only when a row's time is more than an int away from the base
+ * 		int wide count, then for each row with WIDE collisions long row and int collisions
+ * Dictionary:
+ * 		int count, then for each element ID in order a short length and that many UTF-8 bytes
+ *
+ * A frame's rows end with its FINISH row, so frames don't need an ID of their own.
+ * The row count and tables offset are filled in when the file is closed.
+ * @author Justin
+ *
+ */
+public class BinaryTrace {
+	public static final int MAGIC = 0x4E545243;		//"NTRC"
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 24,
+							ROW_SIZE = 8,
+							NO_ELEMENT = 0xFFFF,
+							MAX_ELEMENTS = NO_ELEMENT,
+							WIDE = 0xFF;			//The collisions are in the wide table.
+	
+	private BinaryTrace() {}
+	
+	/**
+	 * One file's rows as they're written: the blocks and wide collision counts so far,
+	 * which go in the tables when it's closed. Only the simulation thread touches it.
+	 */
+	public static class Encoder {
+		private long rows = 0,
+					 base = 0;
+		private long[] blocks = new long[8];		//first row, base time, ...
+		private int blockCount = 0;
+		private long[] wideRows = new long[8];
+		private int[] wideCollisions = new int[8];
+		private int wideCount = 0;
+	
+		/**
+		 * Append one frame's rows to the buffer, which must have room for all of them.
+		 */
+		public void encode(Frame frame, ByteBuffer out) {
+			FrameTrace trace = frame.getTrace();
+			for (int row = 0; row < trace.size(); ++row) {
+				int element = trace.getElement(row),
+					collisions = trace.getCollisions(row);
+				if (element >= MAX_ELEMENTS)
+					throw new IllegalStateException("BinaryTrace: element IDs only go up to " + (MAX_ELEMENTS - 1) + ".");
+				long time = trace.getTime(row);
+				if (blockCount == 0 || time - base != (int) (time - base))
+					startBlock(time);
+				if (collisions >= WIDE)
+					addWide(collisions);
+	
+				out.putInt((int) (time - base));
+				out.putShort((short) (element < 0 ? NO_ELEMENT : element));
+				out.put((byte) trace.getType(row).ordinal());
+				out.put((byte) Math.min(collisions, WIDE));
+				++rows;
+			}
+		}
+	
+		public long getRows() {
+			return rows;
+		}
+	
+		private void startBlock(long time) {
+			if (2 * blockCount == blocks.length)
+				blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+			blocks[2 * blockCount] = rows;
+			blocks[2 * blockCount + 1] = time;
+			++blockCount;
+			base = time;
+		}
+	
+		private void addWide(int collisions) {
+			if (wideCount == wideRows.length) {
+				wideRows = Arrays.copyOf(wideRows, 2 * wideCount);
+				wideCollisions = Arrays.copyOf(wideCollisions, 2 * wideCount);
+			}
+			wideRows[wideCount] = rows;
+			wideCollisions[wideCount] = collisions;
+			++wideCount;
+		}
+	
+		/**
+		 * The block and wide tables, for after the last row.
+		 */
+		public ByteBuffer tables() {
+			ByteBuffer tables = ByteBuffer.allocate(8 + 16 * blockCount + 12 * wideCount);
+			tables.putInt(blockCount);
+			for (int i = 0; i < 2 * blockCount; ++i)
+				tables.putLong(blocks[i]);
+			tables.putInt(wideCount);
+			for (int i = 0; i < wideCount; ++i)
+				tables.putLong(wideRows[i]).putInt(wideCollisions[i]);
+			tables.flip();
+			return tables;
+		}
+	}
+	
+	public static ByteBuffer header(long rows, long tablesOffset) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putShort(VERSION).putShort((short) ROW_SIZE)
+			  .putLong(rows).putLong(tablesOffset);
+		header.flip();
+		return header;
+	}
+	
+	public static ByteBuffer dictionary(String[] names) {
+		byte[][] encoded = new byte[names.length][];
+		int size = 4;
+		for (int i = 0; i < names.length; ++i) {
+			encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			size += 2 + encoded[i].length;
+		}
+	
+		ByteBuffer dictionary = ByteBuffer.allocate(size);
+		dictionary.putInt(names.length);
+		for (byte[] name : encoded) 
+			dictionary.putShort((short) name.length).put(name);
+		dictionary.flip();
+		return dictionary;
+	}
+}
@@ -0,0 +1,185 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a binary trace (see BinaryTrace) by mapping it into memory, so rows can be
+ * looked at in any order without reading the whole file. Rows are mapped in chunks
+ * of under 2GB each, since that's as much as one mapping can hold.
+ * 
+ * Run it on its own to turn a trace back into the CSV layout the nodes used to write:
+ * 		java BinaryTraceReader A.trace [A.csv]
+ * @author Justin
+ *
+ */
+public class BinaryTraceReader {
+	private static final long CHUNK_ROWS = Integer.MAX_VALUE / BinaryTrace.ROW_SIZE;
+	private static final TraceEvent[] EVENTS = TraceEvent.values();
+	
+	private final String file;
+	private final long rowCount;
+	private final MappedByteBuffer[] chunks;
+	private final long[] blockRows,			//The first row of each block of times,
+						 blockTimes,		//and the time the rows in it are counted from.
+						 wideRows;			//Every row whose collisions didn't fit in its byte,
+	private final int[] wideCollisions;		//and how many there were.
+	private int lastBlock = 0;				//Where getTime looked last, since rows are mostly read in order.
+	private final ElementRegistry registry = new ElementRegistry();
+	
+	public BinaryTraceReader(String file) throws IOException {
+		this.file = file;
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try {
+			if (channel.size() < BinaryTrace.HEADER_SIZE)
+				throw new IOException(file + " is too short to be a trace.");
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryTrace.HEADER_SIZE);
+			if (header.getInt() != BinaryTrace.MAGIC)
+				throw new IOException(file + " is not a trace.");
+			short version = header.getShort();
+			if (version != BinaryTrace.VERSION || header.getShort() != BinaryTrace.ROW_SIZE)
+				throw new IOException(file + " is trace version " + version + "; expected " + BinaryTrace.VERSION + ".");
+			rowCount = header.getLong();
+			long tablesOffset = header.getLong();
+			if (tablesOffset != BinaryTrace.HEADER_SIZE + rowCount * BinaryTrace.ROW_SIZE
+					|| tablesOffset > channel.size())
+				throw new IOException(file + " was not closed properly.");
+			
+			chunks = new MappedByteBuffer[(int) ((rowCount + CHUNK_ROWS - 1) / CHUNK_ROWS)];
+			for (int i = 0; i < chunks.length; ++i) {
+				long first = i * CHUNK_ROWS;
+				long rows = Math.min(CHUNK_ROWS, rowCount - first);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						BinaryTrace.HEADER_SIZE + first * BinaryTrace.ROW_SIZE, rows * BinaryTrace.ROW_SIZE);
+			}
+			
+			ByteBuffer tables = channel.map(FileChannel.MapMode.READ_ONLY,
+					tablesOffset, channel.size() - tablesOffset);
+			int blocks = tables.getInt();
+			blockRows = new long[blocks];
+			blockTimes = new long[blocks];
+			for (int i = 0; i < blocks; ++i) {
+				blockRows[i] = tables.getLong();
+				blockTimes[i] = tables.getLong();
+			}
+			if (rowCount > 0 && (blocks == 0 || blockRows[0] != 0))
+				throw new IOException(file + " has no time for its first row.");
+			int wide = tables.getInt();
+			wideRows = new long[wide];
+			wideCollisions = new int[wide];
+			for (int i = 0; i < wide; ++i) {
+				wideRows[i] = tables.getLong();
+				wideCollisions[i] = tables.getInt();
+			}
+			
+			ByteBuffer dictionary = tables.slice();
+			int names = dictionary.getInt();
+			for (int id = 0; id < names; ++id) {
+				byte[] name = new byte[dictionary.getShort()];
+				dictionary.get(name);
+				registry.intern(new String(name, StandardCharsets.UTF_8));
+			}
+		} finally {
+			channel.close();		//the mappings stay valid after the channel closes
+		}
+	}
+	
+	public long getRowCount() { return rowCount; }
+	public ElementRegistry getRegistry() { return registry; }
+	
+	public TraceEvent getType(long row) { return EVENTS[chunk(row).get(offset(row) + 6)]; }
+	
+	public long getTime(long row) {
+		int block = lastBlock;
+		if (blockRows[block] > row || (block + 1 < blockRows.length && blockRows[block + 1] <= row)) {
+			block = Arrays.binarySearch(blockRows, row);
+			if (block < 0)
+				block = -block - 2;		//the block before where it would go
+			lastBlock = block;
+		}
+		return blockTimes[block] + chunk(row).getInt(offset(row));
+	}
+	
+	public int getCollisions(long row) {
+		int collisions = chunk(row).get(offset(row) + 7) & 0xFF;
+		if (collisions != BinaryTrace.WIDE)
+			return collisions;
+		int wide = Arrays.binarySearch(wideRows, row);
+		if (wide < 0)
+			throw new IllegalStateException("BinaryTraceReader: " + file + " has no collision count for row " + row + ".");
+		return wideCollisions[wide];
+	}
+	
+	/**
+	 * @return	The element's ID, or -1 for rows that don't happen at an element.
+	 */
+	public int getElement(long row) {
+		int element = chunk(row).getChar(offset(row) + 4);
+		return element == BinaryTrace.NO_ELEMENT ? -1 : element;
+	}
+	
+	/**
+	 * @return	The element's name, or null for rows that don't happen at an element.
+	 */
+	public String getElementName(int id) {
+		return id < 0 ? null : registry.getName(id);
+	}
+	
+	/**
+	 * Write every frame's record in the CSV layout, one line per frame, in the order
+	 * they finished. Each frame's rows end with its FINISH row.
+	 */
+	public void toCsv(Writer out) throws IOException {
+		FrameTrace trace = new FrameTrace();
+		StringBuilder line = new StringBuilder();
+		for (long row = 0; row < rowCount; ++row) {
+			TraceEvent type = getType(row);
+			trace.add(type, getElement(row), getTime(row), getCollisions(row));
+			if (type == TraceEvent.FINISH) {
+				trace.appendCsv(line, registry);
+				line.append(System.lineSeparator());
+				out.write(line.toString());
+				line.setLength(0);
+				trace.clear();
+			}
+		}
+		if (trace.size() > 0)
+			System.err.println("WARNING: BinaryTraceReader: " + file + " ends partway through a frame.");
+	}
+	
+	private MappedByteBuffer chunk(long row) {
+		return chunks[(int) (row / CHUNK_ROWS)];
+	}
+	
+	private static int offset(long row) {
+		return (int) (row % CHUNK_ROWS) * BinaryTrace.ROW_SIZE;
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java BinaryTraceReader <trace file> [csv file]");
+			return;
+		}
+		String in = args[0];
+		String out = args.length > 1 ? args[1]
+				: (in.endsWith(TraceFormat.BINARY.getExtension())
+						? in.substring(0, in.length() - TraceFormat.BINARY.getExtension().length()) : in)
+					+ TraceFormat.CSV.getExtension();
+		
+		BinaryTraceReader reader = new BinaryTraceReader(in);
+		Writer writer = new BufferedWriter(new FileWriter(out));
+		try {
+			reader.toCsv(writer);
+		} finally {
+			writer.close();
+		}
+		System.out.println(in + ": " + reader.getRowCount() + " rows written to " + out + ".");
+	}
+}
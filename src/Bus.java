@@ -1,35 +1,42 @@
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
-public class Bus {
+public class Bus implements EventHandler {
 	protected String name;					//Name of the bus.
+	protected final SimulationContext context;
+	protected final Clock clock;
+	protected final ProgressMonitor monitor;
+	protected final SimulationEvents events;
 	protected Set<Node> nodes;				//All the nodes it's connected to.
 	protected Set<Router> routers;			//All the routers it's connected to.
-	protected Map<Frame, Long> propFrames_finishTime;	//All the frames currently propagating (after the node finishes transmission)
-											//TODO: Does this have to be a map?
+	protected ArrayList<Router> routerIndex = new ArrayList<Router>();	//The same routers, by index, for picking one at random.
 	protected final long PROP_SPEED = 	200000000, 					 //in m/s
 					   	 PROP_TIME_x2 = 1000000l  *2*2000/PROP_SPEED; // microseconds, 2000 is distance and 2 is for both there and back
 	
 	protected int numTransmitting;	//how many nodes are trying to transmit? more than one means collision			
 	protected boolean busy,			//is this bus claimed by a node?
-					collision;		//did frames collide here?
+					collision,		//did frames collide here?
+					changed;		//has numTransmitting moved since the last setStatus?
+	protected long busySince,		//when did the bus last become busy?
+				   busyTime = 0;	//how long was it busy, up to busySince?
 	
-	public Bus(String name) {
+	public Bus(String name, SimulationContext context) {
 		this.name = name;
-		this.nodes = new HashSet<Node>();
-		this.routers = new HashSet<Router>();
-		this.propFrames_finishTime = new HashMap<Frame, Long>();
+		this.context = context;
+		this.clock = context.getClock();
+		this.monitor = context.getMonitor();
+		this.events = context.getEvents();
+		this.nodes = new LinkedHashSet<Node>();		//Linked, so iteration order (and the run) is reproducible.
+		this.routers = new LinkedHashSet<Router>();
 		this.busy = false;
 		this.collision = false;
 	}
 	
 	public void addNode(Node n) {
-		this.nodes.add(n);
-		n.addBus(this);
+		if (this.nodes.add(n))
+			n.addBus(this);
 	}
 	
 	public void addNode(Collection<Node> nodes) {
@@ -38,7 +45,8 @@ public class Bus {
 	}
 	
 	public void addRouter(Router r) {
-		this.routers.add(r);
+		if (this.routers.add(r))
+			this.routerIndex.add(r);
 		r.addBus(this);
 	}
 	
@@ -52,27 +60,18 @@ public class Bus {
 	 */
 	public long acceptFrame(Frame frame) {		
 		long timeRemaining = PROP_TIME_x2; 
-		long finish = Clock.addStep(timeRemaining);
-		this.propFrames_finishTime.put(frame, finish);
+		clock.addStep(timeRemaining, EventType.PROPAGATION_FINISH, this, frame);
 		
 		return timeRemaining;
 	}
 	
 	/**
-	 * Checks to see if any frames have finished their expected propagation time.
+	 * A frame has finished its expected propagation time.
 	 */
-	public void checkIfFramesDone() {
-		ArrayList<Frame> toRemove = new ArrayList<Frame>();	//frames to remove from map if done propagating
-		
-		for (Frame frame : propFrames_finishTime.keySet()) {			
-			if (Clock.equalsTime(propFrames_finishTime.get(frame))) {
-				deliver(frame);		
-				toRemove.add(frame);
-			}
-		}
-		
-		for (Frame frame : toRemove)
-			propFrames_finishTime.remove(frame);
+	@Override
+	public void handleEvent(Event event) {
+		deliver(event.getFrame());
+		markChanged();
 	}
 	
 	/**
@@ -85,13 +84,20 @@ public class Bus {
 		destination.acceptFrameFromNode(frame);
 		src.acceptACK(frame);
 		numTransmitting--; 
-		ProgressMonitor.recordDelivery(frame);
+		events.delivered(frame, this);
 	}
 	
 	public boolean isBusy() { return this.busy; }	
 	public boolean hasCollision() {	return this.collision; }
-	public void claim() { ++this.numTransmitting; }	
-	public void release() {	--this.numTransmitting; }
+	public void claim() { ++this.numTransmitting; markChanged(); }	
+	public void release() {	--this.numTransmitting; markChanged(); }
+	
+	protected void markChanged() {
+		if (!changed) {
+			changed = true;
+			context.busChanged(this);
+		}
+	}
 	
 	/**
 	 * Run once every step to check to see if the status of the bus (busy, idle) has changed.
@@ -100,11 +106,16 @@ public class Bus {
 	 * sequential (with no concurrency), I have to set the status after all send.
 	 */
 	public void setStatus() { 
+		boolean wasBusy = this.busy;
 		this.busy = this.numTransmitting > 0;		
+		if (this.busy != wasBusy) {
+			if (this.busy) busySince = clock.time();
+			else busyTime += clock.time() - busySince;
+		}
 		if (!this.busy)
 			this.collision = false;
 		else if (this.numTransmitting > 1) {
-			if (!this.collision) ProgressMonitor.addCollision();	//Add a collision only the first time it transitions.
+			if (!this.collision) events.busCollision(this);	//Add a collision only the first time it transitions.
 			this.collision = true;
 		}
 	}
@@ -125,8 +136,18 @@ public class Bus {
 	}
 	
 	public String getName() { return this.name; }	
+	
+	/**
+	 * @return	How many microseconds this bus has been busy so far.
+	 */
+	public long getBusyTime() {
+		return busy ? busyTime + clock.time() - busySince : busyTime;
+	}
+	
 	public Iterable<Node> getNodes() { return this.nodes; }	
 	public Iterable<Router> getRouters() { return this.routers; }
+	public Router getRouter(int index) { return this.routerIndex.get(index); }
+	public int getRouterCount() { return this.routerIndex.size(); }
 	public long getPropTime(Frame frame) { return PROP_TIME_x2; } //1000000 * 2*getDistance(frame) / PROP_SPEED; }
 	public int getNumTransmitting() { return numTransmitting; }
 }
\ No newline at end of file
@@ -1,69 +1,259 @@
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 /**
  * The clock keeps track of microseconds elapsed, representing the current
- * time as a long value. Every node and bus keeps track of events (e.g.
- * end of transmission, check for collision) as one of these long value,
- * and that's how everything knows how to take the next step.
+ * time as a long value. Every node and bus schedules its events (e.g.
+ * end of transmission, check for collision) on the clock, and each step
+ * the clock hands those events back to only the elements they belong to.
+ * Each simulation has its own clock, found through its SimulationContext.
+ * 
+ * Events are kept on a free list and reused, so scheduling one allocates nothing once
+ * the list has grown to the most events ever pending at once. addStep hands out a long
+ * handle rather than the Event, and a handle to an event that has since fired or been
+ * dropped no longer matches anything, so it can't cancel the event's next use.
  * @author Justin
  *
  */
 public class Clock {
-	private static long time = 0,
+	private long time = 0,
 							  //delta = BigDecimal.ZERO,
 							  duration = 0,
 							  nextSlot = 0;
-	private static boolean isSlot = true;
-	private static PriorityQueue<Long> nextSteps = new PriorityQueue<Long>();
+	private boolean isSlot = true;
+	private long eventCount = 0;		//Used to keep events of the same type in the order they were added.
+	public final static long NO_EVENT = 0;		//A handle that never names an event.
 	private final static long defaultStep = 50;		//in seconds
+	private final static long updateTableStep = 2000;
+	private final static int wheelSlots = 64;		//How many slots ahead the timing wheel covers.
+	private boolean useTimingWheel = true;	//False to go back to the binary heap.
+	private boolean skipIdleSlots = true;	//False to step through every slot whether or not anyone needs it.
+	private EventQueue nextSteps = newQueue();
+	private Event[] pool = new Event[64];		//Every event this clock has made, by index, for looking up handles.
+	private int pooled = 0;
+	private Event free = null;					//Events ready to be reused, chained through Event.next.
+	private EngineProfiler profiler = null;		//Counts and times the events and steps, if set.
 	
-	public static void reset() {
+	/**
+	 * Clear the clock back to time zero, with a new queue of the chosen kind.
+	 */
+	public void reset() {
 		time = 0;
 		duration = 0;
 		nextSlot = 0;
 		isSlot = true;
-		nextSteps = new PriorityQueue<Long>();
+		eventCount = 0;
+		nextSteps = newQueue();
+		pool = new Event[64];		//Whatever the old queue held is dropped with it.
+		pooled = 0;
+		free = null;
+	}
+	
+	/**
+	 * Choose which queue backs this clock after the next reset: the timing wheel (default)
+	 * or the binary heap. Both fire events in exactly the same order.
+	 */
+	public void useTimingWheel(boolean wheel) {
+		useTimingWheel = wheel;
+	}
+	
+	/**
+	 * Choose whether this clock, after the next reset, steps through every slot or only the
+	 * slots that some element asked for with FRAME_ARRIVAL or SLOT events. Nodes sample
+	 * their arrivals differently in the two modes, but with the same distribution.
+	 */
+	public void skipIdleSlots(boolean skip) {
+		skipIdleSlots = skip;
+	}
+	
+	public boolean isSkippingIdleSlots() {
+		return skipIdleSlots;
+	}
+	
+	/**
+	 * Count and time every event and step with this profiler, or stop with null.
+	 */
+	public void setProfiler(EngineProfiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	private EventQueue newQueue() {
+		return useTimingWheel ? new TimingWheel(wheelSlots, defaultStep) : new HeapEventQueue();
 	}
 	
 	/**
 	 * Accepts a duration in seconds, converts and stores it in microseconds.
 	 * @param d		Duration of simulation in seconds.
 	 */
-	public static void setDuration(long d) {
+	public void setDuration(long d) {
 		duration = 1000000*d;
 	}
 	
 	/**
 	 * Set another event in the clock so the simulations stops at that time.
 	 * @param next		The number of microseconds from now the new event should happen.
-	 * @return			The objective clock time at which the next event will occur.
+	 * @param type		What kind of event this is.
+	 * @param target	Who handles the event when it comes due.
+	 * @return			A handle on the event, for cancel and isDue. It goes stale once the event fires.
+	 */
+	public long addStep(long next, EventType type, EventHandler target) {
+		return addStep(next, type, target, null);
+	}
+	
+	/**
+	 * Same as above, but for events that carry a frame with them (e.g. propagation).
+	 */
+	public long addStep(long next, EventType type, EventHandler target, Frame frame) {
+		Event event = take();
+		event.set(time + next, eventCount++, type, target, frame);
+		nextSteps.add(event);
+		return event.handle();
+	}
+	
+	/**
+	 * Cancel an event if there is one. Safe to call with NO_EVENT or a handle whose event
+	 * already fired.
+	 */
+	public void cancel(long handle) {
+		Event event = lookup(handle);
+		if (event != null)
+			event.cancel();
+	}
+	
+	/**
+	 * @return	The event the handle was given out for, or null if it's NO_EVENT or stale.
+	 */
+	private Event lookup(long handle) {
+		int index = (int) (handle >>> 32);
+		if (handle == NO_EVENT || index >= pooled)
+			return null;
+		Event event = pool[index];
+		return event.generation == (int) handle ? event : null;
+	}
+	
+	/**
+	 * A free event, or a new one if they're all in use.
 	 */
-	public static long addStep(long next) {
-		long nextTime = time + next;
-		if (!nextSteps.contains(nextTime))
-			nextSteps.add(nextTime);
-		return nextTime;
+	private Event take() {
+		Event event = free;
+		if (event != null) {
+			free = event.next;
+			event.next = null;
+			return event;
+		}
+		if (pooled == pool.length)
+			pool = Arrays.copyOf(pool, pooled * 2);
+		event = new Event(this, pooled);
+		pool[pooled++] = event;
+		return event;
+	}
+	
+	/**
+	 * Called by Event.release once the event has fired or been dropped.
+	 */
+	void release(Event event) {
+		event.next = free;
+		free = event;
+	}
+
+	
+	/**
+	 * When skipping idle slots, ask for a SLOT event so the element gets its slot work done.
+	 * Does nothing in the other mode, where every element is polled every slot anyway.
+	 * @param pending	The element's last SLOT event handle, so we don't ask twice for the same slot.
+	 * @param target	The element that has work.
+	 * @param thisSlot	True for the slot at the current time if this is a slot time whose work
+	 * 					hasn't been done yet (or else the next slot); false for the slot after this one.
+	 * @return			The element's SLOT event from now on.
+	 */
+	public long addSlotStep(long pending, EventHandler target, boolean thisSlot) {
+		if (!skipIdleSlots)
+			return pending;
+		
+		long next = thisSlot ? (defaultStep - time % defaultStep) % defaultStep 
+							 : defaultStep - time % defaultStep;
+		Event event = lookup(pending);
+		if (event != null && !event.isCancelled() && event.getTime() >= time + next)
+			return pending;
+		return addStep(next, EventType.SLOT, target);
+	}
+	
+	/**
+	 * Convert a number of slots into microseconds.
+	 */
+	public static long slotsToTime(long slots) {
+		return slots * defaultStep;
+	}
+	
+	/**
+	 * How many slots apart the routing table updates are.
+	 */
+	public static long slotsPerTableUpdate() {
+		return updateTableStep / defaultStep;
+	}
+	
+	/**
+	 * Hand every event of the given type (and any earlier type) that is due right now
+	 * to its target. Only the elements with something to do are touched.
+	 * @param type		The last type of event to fire this call.
+	 */
+	public void fireEvents(EventType type) {
+		Event next;
+		if (profiler != null) {
+			while ((next = nextSteps.peek()) != null 
+					&& next.getTime() == time && next.getType().compareTo(type) <= 0) {
+				next = nextSteps.remove();
+				profiler.fire(next);
+				next.release();
+			}
+			return;
+		}
+		
+		while ((next = nextSteps.peek()) != null 
+				&& next.getTime() == time && next.getType().compareTo(type) <= 0) {
+			next = nextSteps.remove();
+			next.fire();
+			next.release();
+		}
 	}
 	
 	/**
 	 * Move the clock forward to the next event.
 	 * @return	True if we're still in simulation time, false if we've passed the input duration
 	 */
-	public static boolean step() {
+	public boolean step() {
+		if (profiler != null)
+			profiler.step();
+		if (skipIdleSlots) 
+			return skipToNextEvent();
+		
 		if (isSlotTime()) {
-			nextSlot = addStep(defaultStep);
+			nextSlot = time + defaultStep;
 		}
 
-		time = nextSteps.remove();		//TODO: Add check to make sure this never throws an error?		
+		Event next = nextSteps.peek();
+		time = next == null ? nextSlot : Math.min(nextSlot, next.getTime());
 		isSlot = time == nextSlot;		
 		return time < duration; //isNotDone
 	}
 	
-	public static long time() {
+	/**
+	 * Move straight to the next event, or the next routing table update if that's sooner.
+	 * Slots nobody asked for are never visited.
+	 */
+	private boolean skipToNextEvent() {
+		Event next = nextSteps.peek();
+		long nextUpdate = (time / updateTableStep + 1) * updateTableStep;
+		
+		time = next == null ? nextUpdate : Math.min(nextUpdate, next.getTime());
+		isSlot = time % defaultStep == 0;
+		return time < duration;
+	}
+	
+	public long time() {
 		return time;
 	}
 	
-	public static void printTime() {
+	public void printTime() {
 		System.out.printf("Time: %.6f\n", (double) time / 1000000);
 	}
 	
@@ -74,11 +264,19 @@ public class Clock {
 	 * @param otherTime		The comparison time.
 	 * @return	true if the input time is now, false otherwise.
 	 */
-	public static boolean equalsTime(Long otherTime) {
+	public boolean equalsTime(Long otherTime) {
 		return time == otherTime; 
 	}
 	
-	public static boolean isSecond() {
+	/**
+	 * Same as above, for an event handle: true if it's still live, wasn't cancelled, and is for now.
+	 */
+	public boolean isDue(long handle) {
+		Event event = lookup(handle);
+		return event != null && !event.isCancelled() && event.getTime() == time;
+	}
+	
+	public boolean isSecond() {
 		return time > 0 && time % 1000000 == 0;
 	}
 	
@@ -86,11 +284,11 @@ public class Clock {
 	 * Is it a time at which new frames can be sent out?
 	 * @return
 	 */
-	public static boolean isSlotTime() {
+	public boolean isSlotTime() {
 		return isSlot;
 	}
 
-	public static boolean isUpdateTableTime() {
-		return time % 2000 == 0;
+	public boolean isUpdateTableTime() {
+		return time % updateTableStep == 0;
 	}
 }
\ No newline at end of file
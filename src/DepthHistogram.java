@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * A histogram of queue depths. Depths under 16 get a bucket each; above that, every
+ * power of two is split into 8 buckets, so a quantile is never off by more than an
+ * eighth. Recording is a few arithmetic ops and one array increment, so it can be done
+ * every few slots. Quantiles are the top of the bucket they fall in, capped at the max.
+ * @author Justin
+ *
+ */
+public class DepthHistogram {
+	private static final int LINEAR = 16,		//depths with a bucket of their own
+							 SUB_BITS = 3;		//log2 of the buckets per power of two above that
+	
+	private final long[] buckets = new long[bucketOf(Integer.MAX_VALUE) + 1];
+	private long count = 0,
+				 sum = 0;
+	private int max = 0;
+	
+	public void record(int depth) {
+		++buckets[bucketOf(depth)];
+		++count;
+		sum += depth;
+		if (depth > max) max = depth;
+	}
+	
+	public void reset() {
+		Arrays.fill(buckets, 0);
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+	
+	public long getCount() { return count; }
+	public int getMax() { return max; }
+	
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * @param q		Between 0 and 1.
+	 * @return		The depth at or under which this fraction of the samples fell, to within a bucket.
+	 */
+	public int getQuantile(double q) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(q * count);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int bucket = 0; bucket < buckets.length; ++bucket) {
+			seen += buckets[bucket];
+			if (seen >= rank)
+				return (int) Math.min(max, topOf(bucket));
+		}
+		return max;
+	}
+	
+	private static int bucketOf(int depth) {
+		if (depth < LINEAR)
+			return depth;
+		int exponent = 31 - Integer.numberOfLeadingZeros(depth);
+		int sub = (depth >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return LINEAR + ((exponent - 4) << SUB_BITS) + sub;
+	}
+	
+	private static long topOf(int bucket) {
+		if (bucket < LINEAR)
+			return bucket;
+		int exponent = ((bucket - LINEAR) >> SUB_BITS) + 4,
+			sub = (bucket - LINEAR) & ((1 << SUB_BITS) - 1);
+		long bottom = (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+		return bottom + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Gives every named element in a simulation a small integer ID, so traces can store
+ * an int instead of a name and only look the name up when they're written out.
+ */
+public class ElementRegistry {
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	private final ArrayList<String> names = new ArrayList<String>();
+	
+	/**
+	 * @return	The ID for this name, handing out the next one if it's new.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+		}
+		return id;
+	}
+	
+	/**
+	 * @return	The ID for this name, or -1 if it hasn't been handed one.
+	 */
+	public int getID(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+	
+	public String getName(int id) {
+		return names.get(id);
+	}
+	
+	public int size() {
+		return names.size();
+	}
+	
+	/**
+	 * @return	Every name so far, indexed by ID.
+	 */
+	public String[] getNames() {
+		return names.toArray(new String[names.size()]);
+	}
+}
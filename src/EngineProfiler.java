@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Where a run's wall-clock time goes: how many times each phase of the driver's loop
+ * ran and how many nanoseconds it took, how many events of each type fired and what
+ * they cost per kind of element, and overall how many steps and events the engine
+ * gets through per second. Turned on with SimulationContext.setProfiling; when it's
+ * off, the driver and clock skip all of this with a null check per step.
+ * @author Justin
+ *
+ */
+public class EngineProfiler {
+	/**
+	 * The parts of one step of the driver's loop.
+	 */
+	public enum Phase {
+		RANDOMIZE_COSTS,
+		UPDATE_TABLES,
+		FINISH_PROPAGATIONS,
+		FINISH_TRANSMISSIONS,
+		DETECT_COLLISIONS,
+		GENERATE_FRAMES,
+		START_TRANSMISSIONS,
+		SAMPLE_METRICS,
+		PRINT
+	}
+	
+	private static final Phase[] PHASES = Phase.values();
+	private static final EventType[] TYPES = EventType.values();
+	
+	private final long[] phaseCalls = new long[PHASES.length],
+						 phaseNanos = new long[PHASES.length];
+	private final long[] typeEvents = new long[TYPES.length];
+	private final ArrayList<Class<?>> handlers = new ArrayList<Class<?>>();	//Kinds of element, in the order first seen
+	private long[] handlerEvents = new long[8],
+				   handlerNanos = new long[8];
+	private Class<?> lastHandler = null;		//Most events in a row go to the same kind of element.
+	private int lastIndex = -1;
+	private long steps = 0,
+				 events = 0,
+				 started = 0,
+				 finished = 0,
+				 simulatedTime = 0;
+	
+	public void start() {
+		started = System.nanoTime();
+	}
+	
+	/**
+	 * Stop the wall clock at the end of the run.
+	 * @param time	How far the simulation got, in microseconds.
+	 */
+	public void finish(long time) {
+		finished = System.nanoTime();
+		simulatedTime = time;
+	}
+	
+	public void step() {
+		++steps;
+	}
+	
+	/**
+	 * Add one run of a phase that started at the given System.nanoTime.
+	 * @return	The time now, for the start of the next phase.
+	 */
+	public long lap(Phase phase, long since) {
+		long now = System.nanoTime();
+		++phaseCalls[phase.ordinal()];
+		phaseNanos[phase.ordinal()] += now - since;
+		return now;
+	}
+	
+	/**
+	 * Fire the event, timing it against its target's kind of element.
+	 */
+	public void fire(Event event) {
+		Class<?> handler = event.getTarget().getClass();
+		int index = handler == lastHandler ? lastIndex : indexOf(handler);
+		long start = System.nanoTime();
+		event.fire();
+		handlerNanos[index] += System.nanoTime() - start;
+		++handlerEvents[index];
+		++typeEvents[event.getType().ordinal()];
+		++events;
+	}
+	
+	public long getSteps() { return steps; }
+	public long getEvents() { return events; }
+	public long getPhaseCalls(Phase phase) { return phaseCalls[phase.ordinal()]; }
+	public long getPhaseNanos(Phase phase) { return phaseNanos[phase.ordinal()]; }
+	
+	public double getWallSeconds() {
+		return (finished - started) / 1e9;
+	}
+	
+	public double getStepsPerSecond() {
+		return steps / getWallSeconds();
+	}
+	
+	public double getEventsPerSecond() {
+		return events / getWallSeconds();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		double wall = getWallSeconds();
+		report.append(String.format("Engine: %.3f s wall for %.3f s simulated (%.1fx)%n",
+				wall, simulatedTime / 1e6, simulatedTime / 1e6 / wall));
+		report.append(String.format("\t%d steps (%.0f/s), %d events (%.0f/s)%n",
+				steps, getStepsPerSecond(), events, getEventsPerSecond()));
+		
+		report.append("Phases:\n");
+		for (Phase phase : PHASES)
+			if (phaseCalls[phase.ordinal()] > 0)
+				report.append(row(phase.toString(), phaseCalls[phase.ordinal()], phaseNanos[phase.ordinal()], wall));
+		
+		report.append("Events by type:\n");
+		for (EventType type : TYPES)
+			if (typeEvents[type.ordinal()] > 0)
+				report.append(String.format("\t%-22s %12d%n", type, typeEvents[type.ordinal()]));
+		
+		report.append("Events by element:\n");
+		for (int i = 0; i < handlers.size(); ++i)
+			report.append(row(handlers.get(i).getSimpleName(), handlerEvents[i], handlerNanos[i], wall));
+		return report.toString();
+	}
+	
+	private static String row(String name, long calls, long nanos, double wall) {
+		return String.format("\t%-22s %12d calls %10.1f ms %8.1f ns/call %5.1f%%%n",
+				name, calls, nanos / 1e6, calls == 0 ? 0 : (double) nanos / calls, 100 * nanos / 1e9 / wall);
+	}
+	
+	private int indexOf(Class<?> handler) {
+		int index = handlers.indexOf(handler);
+		if (index < 0) {
+			index = handlers.size();
+			handlers.add(handler);
+			if (index == handlerEvents.length) {
+				handlerEvents = Arrays.copyOf(handlerEvents, index * 2);
+				handlerNanos = Arrays.copyOf(handlerNanos, index * 2);
+			}
+		}
+		lastHandler = handler;
+		lastIndex = index;
+		return index;
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * A single scheduled event: when it happens, what kind it is, and who handles it.
+ * Propagation events also carry the frame that is propagating.
+ *
+ * The clock keeps its events on a free list and reuses them, so an Event is only good
+ * for as long as it's queued or being handed to its target. Elements hold on to the
+ * long handle Clock.addStep returns instead; once the event is reused, the handle goes
+ * stale and the clock ignores it.
+ * @author Justin
+ *
+ */
+public class Event implements Comparable<Event> {
+	private long time,
+				 sequence;			//Breaks ties so events of the same type fire in the order they were scheduled.
+	private EventType type;
+	private EventHandler target;
+	private Frame frame;
+	private boolean cancelled = false;
+	private final Clock owner;		//Whose free list this event goes back to, or null if it isn't pooled.
+	final int index;				//Where this event is in its owner's pool.
+	int generation = 1;				//Bumped every time the event is released, so old handles stop matching.
+	Event next;						//Used by TimingWheel to chain events in the same bucket, and by the free list.
+	
+	public Event(long time, long sequence, EventType type, EventHandler target, Frame frame) {
+		this(null, -1);
+		set(time, sequence, type, target, frame);
+	}
+	
+	/**
+	 * An empty event for the clock's pool, filled in by set each time it's handed out.
+	 */
+	Event(Clock owner, int index) {
+		this.owner = owner;
+		this.index = index;
+	}
+	
+	void set(long time, long sequence, EventType type, EventHandler target, Frame frame) {
+		this.time = time;
+		this.sequence = sequence;
+		this.type = type;
+		this.target = target;
+		this.frame = frame;
+		this.cancelled = false;
+	}
+	
+	public void fire() {
+		target.handleEvent(this);
+	}
+	
+	/**
+	 * Revoke the event. It stays in the queue, but the clock throws it away without
+	 * stepping to its time or handing it to its target.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * Hand the event back to its clock's free list. Called once it has fired, or once a
+	 * queue drops it after it was cancelled; nothing may touch it afterwards.
+	 */
+	void release() {
+		if (owner == null)
+			return;
+		target = null;
+		frame = null;
+		if (++generation == 0)
+			generation = 1;			//0 never names a live event
+		owner.release(this);
+	}
+	
+	/**
+	 * @return	The handle Clock.addStep gives out for this event, until it's released.
+	 */
+	long handle() {
+		return ((long) index << 32) | (generation & 0xFFFFFFFFL);
+	}
+	
+	public boolean isCancelled() { return cancelled; }
+	
+	public long getTime() { return time; }
+	public EventType getType() { return type; }
+	public EventHandler getTarget() { return target; }
+	public Frame getFrame() { return frame; }
+	
+	@Override
+	public int compareTo(Event other) {
+		if (time != other.time)
+			return time < other.time ? -1 : 1;
+		if (type != other.type)
+			return type.compareTo(other.type);
+		return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+	}
+}
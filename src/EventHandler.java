@@ -0,0 +1,12 @@
+/**
+ * Anything that can be the target of an event on the clock.
+ */
+public interface EventHandler {
+	
+	/**
+	 * Called by the clock when one of this element's events comes due.
+	 * @param event		The event that just came due. The clock reuses it once this returns,
+	 * 					so don't keep it.
+	 */
+	void handleEvent(Event event);
+}
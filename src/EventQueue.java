@@ -0,0 +1,29 @@
+/**
+ * Where the clock keeps its pending events. Implementations must hand events back
+ * in the order given by Event.compareTo: by time, then type, then the order added.
+ * Cancelled events are dropped as they reach the front and never handed back; dropping
+ * one releases it to the clock's free list.
+ */
+public interface EventQueue {
+
+	void add(Event event);
+	
+	/**
+	 * @return	The earliest pending event that hasn't been cancelled, or null if there are none.
+	 */
+	Event peek();
+	
+	/**
+	 * Remove and return the earliest pending event that hasn't been cancelled. The clock 
+	 * never adds an event earlier than the last one removed.
+	 * @return	The earliest pending event, or null if there are none.
+	 */
+	Event remove();
+	
+	/**
+	 * @return	True if nothing is queued, counting cancelled events that haven't been dropped yet.
+	 */
+	boolean isEmpty();
+	
+	int size();
+}
@@ -0,0 +1,15 @@
+/**
+ * The kinds of things that can be scheduled on the clock. When several events fall
+ * on the same microsecond they are handled in the order declared here, which is the
+ * same order the driver used to poll every element in.
+ * @author Justin
+ *
+ */
+public enum EventType {
+	PROPAGATION_FINISH,		//A frame and its ACK are done propagating on a bus.
+	TRANSMISSION_FINISH,	//A node or router is done putting a frame onto a bus or link.
+	COLLISION_CHECK,		//A transmitter should look at its bus for a collision.
+	FRAME_ARRIVAL,			//New frames arrive at a node. Only used when skipping idle slots.
+	SLOT,					//An element has slot work to do. Only used when skipping idle slots.
+	SAMPLE					//Time to look at the queues for the metrics. Fired after everything else in a slot.
+}
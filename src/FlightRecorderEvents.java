@@ -0,0 +1,126 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for what happens in a run, so a recording can line up
+ * simulated behavior with GC pauses and CPU hotspots. Each carries the simulated time,
+ * the element it happened at, and the frame's ID where there is one.
+ * 
+ * This is the only class that uses the jdk.jfr module. SimulationContext's
+ * setFlightRecorderEvents loads it by name and subscribes it to the SimulationEvents,
+ * and on a runtime built without jdk.jfr just reports that it can't. While no recording
+ * has the events enabled, each one is built and dropped without committing, which is
+ * why nothing subscribes this unless asked to (java -Dnetworks.jfr=true).
+ * @author Justin
+ *
+ */
+public class FlightRecorderEvents implements SimulationEvents.TransmissionStarted, SimulationEvents.Delivered,
+		SimulationEvents.Collision, SimulationEvents.RoutingUpdated {
+	private final Clock clock;
+	
+	@Name("networks.TransmissionStarted")
+	@Label("Transmission Started")
+	@Category("Networks Simulation")
+	@Description("A node or router started putting a frame on a bus or link.")
+	static class TransmissionStartedEvent extends Event {
+		@Label("Simulated Time (us)") long simulatedTime;
+		@Label("Element") String element;
+		@Label("Frame ID") int frameId;
+		@Label("Frame") String frame;
+		@Label("Bus") String bus;
+		@Label("Next Hop") String nextHop;
+	}
+	
+	@Name("networks.Delivered")
+	@Label("Delivered")
+	@Category("Networks Simulation")
+	@Description("A frame and its ACK finished propagating over a bus or link.")
+	static class DeliveredEvent extends Event {
+		@Label("Simulated Time (us)") long simulatedTime;
+		@Label("Element") String element;
+		@Label("Frame ID") int frameId;
+		@Label("Frame") String frame;
+		@Label("Bus") String bus;
+	}
+	
+	@Name("networks.Collision")
+	@Label("Collision")
+	@Category("Networks Simulation")
+	@Description("A node or router detected a collision and backed off.")
+	static class CollisionEvent extends Event {
+		@Label("Simulated Time (us)") long simulatedTime;
+		@Label("Element") String element;
+		@Label("Frame ID") int frameId;
+		@Label("Frame") String frame;
+		@Label("Backoff (slots)") int backoff;
+	}
+	
+	@Name("networks.RoutingUpdated")
+	@Label("Routing Updated")
+	@Category("Networks Simulation")
+	@Description("A router ran its routing algorithm and has a new table.")
+	static class RoutingUpdatedEvent extends Event {
+		@Label("Simulated Time (us)") long simulatedTime;
+		@Label("Element") String element;
+		@Label("Routers Reachable") int reachable;
+	}
+	
+	public FlightRecorderEvents(SimulationContext context) {
+		this.clock = context.getClock();
+		context.getEvents().subscribeAll(this);
+	}
+	
+	@Override
+	public void onTransmissionStarted(Frame frame, Bus path) {
+		TransmissionStartedEvent event = new TransmissionStartedEvent();
+		if (!event.shouldCommit())
+			return;
+		event.simulatedTime = clock.time();
+		event.element = frame.getPrevHop().getName();
+		event.frameId = frame.getID();
+		event.frame = frame.getName();
+		event.bus = path.getName();
+		event.nextHop = frame.getNextHop() != null ? frame.getNextHop().getName() : null;
+		event.commit();
+	}
+	
+	@Override
+	public void onDelivered(Frame frame, Bus path) {
+		DeliveredEvent event = new DeliveredEvent();
+		if (!event.shouldCommit())
+			return;
+		event.simulatedTime = clock.time();
+		event.element = frame.getNextHop() != null ? frame.getNextHop().getName() : null;
+		event.frameId = frame.getID();
+		event.frame = frame.getName();
+		event.bus = path.getName();
+		event.commit();
+	}
+	
+	@Override
+	public void onCollision(NetworkElementInterface element, Frame frame, int backoff) {
+		CollisionEvent event = new CollisionEvent();
+		if (!event.shouldCommit())
+			return;
+		event.simulatedTime = clock.time();
+		event.element = element.getName();
+		event.frameId = frame.getID();
+		event.frame = frame.getName();
+		event.backoff = backoff;
+		event.commit();
+	}
+	
+	@Override
+	public void onRoutingUpdated(Router router) {
+		RoutingUpdatedEvent event = new RoutingUpdatedEvent();
+		if (!event.shouldCommit())
+			return;
+		event.simulatedTime = clock.time();
+		event.element = router.getName();
+		event.reachable = router.getRoutingTable().size();
+		event.commit();
+	}
+}
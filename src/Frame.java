@@ -1,7 +1,7 @@
-import java.util.ArrayList;
-
 public class Frame {
 	private int id;
+	private final Clock clock;
+	private final ElementRegistry registry;		//To turn element IDs in the trace back into names.
 	private long size;	//in bits
 	private Node src,
 				 dest;
@@ -10,7 +10,7 @@ public class Frame {
 	private boolean isUsed;
 	private boolean finished;
 	
-	ArrayList<String> times = new ArrayList<String>();
+	private final FrameTrace trace = new FrameTrace();
 	
 	//Timing data!
 	private long createTime,
@@ -21,8 +21,10 @@ public class Frame {
 	private int collisionsHere = 0,
 			    collisionsAll = 0;
 	
-	public Frame(int id) {
+	public Frame(int id, SimulationContext context) {
 		this.id = id;
+		this.clock = context.getClock();
+		this.registry = context.getRegistry();
 		this.isUsed = false;
 	}
 	
@@ -74,6 +76,23 @@ public class Frame {
 		this.isUsed = false;
 	}
 	
+	/**
+	 * Wipe everything so the source node can use this frame again under a new ID.
+	 * Keeps the trace's storage.
+	 */
+	public void recycle(int id) {
+		this.id = id;
+		this.src = null;
+		this.dest = null;
+		this.nextHop = null;
+		this.prevHop = null;
+		this.isUsed = false;
+		this.finished = false;
+		this.collisionsHere = 0;
+		this.collisionsAll = 0;
+		trace.clear();
+	}
+	
 	public boolean isAlreadyInitialized() {
 		return this.isUsed;
 	}
@@ -81,22 +100,29 @@ public class Frame {
 	//=====================================================
 	
 	public void create(NetworkElementInterface place) {
-		times.add(place.getName());
-		times.add(Clock.time() + "");
+		create(place, clock.time());
+	}
+	
+	/**
+	 * Same as above, for a frame that arrived at the given time but is only being
+	 * picked up now (nodes don't build frames for their queue until they send them).
+	 */
+	public void create(NetworkElementInterface place, long time) {
+		trace.add(TraceEvent.CREATE, place.getElementID(), time, 0);
 		isUsed = false;
 		
-		//this.createTime = Clock.time();
+		//this.createTime = time;
 	}
 
 	public void startTx() {
-		times.add(Clock.time() + "");
+		trace.add(TraceEvent.START_TX, -1, clock.time(), 0);
 		isUsed = true;
-		//this.startTXTime = Clock.time();
+		//this.startTXTime = clock.time();
 	}
 
 	public void finishTx() {
-		times.add(Clock.time() + "");
-		//this.finishTXTime = Clock.time();
+		trace.add(TraceEvent.FINISH_TX, -1, clock.time(), 0);
+		//this.finishTXTime = clock.time();
 	}
 
 	public void collide() {
@@ -105,32 +131,33 @@ public class Frame {
 	}
 
 	public void deliverAndACK() {
-		times.add(Clock.time() + "");
-		times.add(collisionsHere + "");
+		trace.add(TraceEvent.DELIVER, nextHop != null ? nextHop.getElementID() : -1, clock.time(), collisionsHere);
 		
 		collisionsHere = 0;
-		//this.deliveryAndACKTime = Clock.time();
+		//this.deliveryAndACKTime = clock.time();
 	}
 	
 	public void finish() {
-		times.add(Clock.time() + "");
-		//times.add(collisionsHere + "");
-		times.add(collisionsAll + "");
+		trace.add(TraceEvent.FINISH, dest.getElementID(), clock.time(), collisionsAll);
 
 		finished = true;
-		//this.finishTime = Clock.time();
+		//this.finishTime = clock.time();
 	}
 	
 	public boolean isFinished() {
 		return finished;
 	}
 	
+	public FrameTrace getTrace() {
+		return trace;
+	}
+	
+	/**
+	 * The frame's record, one line of the stats file.
+	 */
 	public String toString() {
-		String results = "";
-		for (String s : times) {
-			if (results.compareTo("") != 0) results += ",";
-			results += s;
-		}
-		return results;
+		StringBuilder results = new StringBuilder();
+		trace.appendCsv(results, registry);
+		return results.toString();
 	}
 }
\ No newline at end of file
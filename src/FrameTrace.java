@@ -0,0 +1,78 @@
+/**
+ * Everything that happened to one frame, stored as columns of primitives: one row per
+ * event with its type, the element it happened at, the time, and a collision count.
+ * Nothing is allocated per event once the columns have grown to fit a frame's trip,
+ * and since frames are recycled the columns are reused too. The text record is only
+ * built when the frame is written out.
+ * @author Justin
+ *
+ */
+public class FrameTrace {
+	private static final TraceEvent[] EVENTS = TraceEvent.values();
+	
+	private byte[] types = new byte[16];
+	private int[] elements = new int[16],
+				  collisions = new int[16];
+	private long[] times = new long[16];
+	private int size = 0;
+	
+	public void add(TraceEvent type, int element, long time, int collisionCount) {
+		if (size == types.length)
+			grow();
+		types[size] = (byte) type.ordinal();
+		elements[size] = element;
+		times[size] = time;
+		collisions[size] = collisionCount;
+		++size;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	public int size() { return size; }
+	public TraceEvent getType(int row) { return EVENTS[types[row]]; }
+	public int getElement(int row) { return elements[row]; }
+	public long getTime(int row) { return times[row]; }
+	public int getCollisions(int row) { return collisions[row]; }
+	
+	/**
+	 * Render in the same layout the stats files have always used: for each hop, the
+	 * element's name, then the create, start, finish and delivery times and that hop's
+	 * collisions; at the end, the finish time and the total collisions.
+	 */
+	public void appendCsv(StringBuilder out, ElementRegistry registry) {
+		int start = out.length();
+		for (int row = 0; row < size; ++row) {
+			if (out.length() > start) out.append(',');
+			switch (EVENTS[types[row]]) {
+			case CREATE:
+				out.append(registry.getName(elements[row])).append(',').append(times[row]);
+				break;
+			case DELIVER:
+			case FINISH:
+				out.append(times[row]).append(',').append(collisions[row]);
+				break;
+			default:
+				out.append(times[row]);
+				break;
+			}
+		}
+	}
+	
+	private void grow() {
+		int length = types.length << 1;
+		byte[] newTypes = new byte[length];
+		int[] newElements = new int[length],
+			  newCollisions = new int[length];
+		long[] newTimes = new long[length];
+		System.arraycopy(types, 0, newTypes, 0, size);
+		System.arraycopy(elements, 0, newElements, 0, size);
+		System.arraycopy(collisions, 0, newCollisions, 0, size);
+		System.arraycopy(times, 0, newTimes, 0, size);
+		types = newTypes;
+		elements = newElements;
+		collisions = newCollisions;
+		times = newTimes;
+	}
+}
@@ -0,0 +1,27 @@
+import java.util.PriorityQueue;
+
+/**
+ * The plain binary heap the clock used to use. O(log n) per insert and removal, and
+ * it doesn't care how far in the future events are.
+ */
+public class HeapEventQueue implements EventQueue {
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	
+	@Override
+	public void add(Event event) { events.add(event); }
+	@Override
+	public Event peek() { 
+		while (!events.isEmpty() && events.peek().isCancelled())
+			events.poll().release();
+		return events.peek(); 
+	}
+	@Override
+	public Event remove() { 
+		peek();
+		return events.poll(); 
+	}
+	@Override
+	public boolean isEmpty() { return events.isEmpty(); }
+	@Override
+	public int size() { return events.size(); }
+}
@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the ints 0 to capacity - 1, ordered by a key array the caller owns
+ * (ties go to the smaller int), that knows where each int is, so an int whose key has
+ * dropped moves up in place instead of being added again. Nothing allocates after the
+ * constructor, so a search can reuse one heap as often as it likes.
+ * @author Justin
+ *
+ */
+public class IndexedHeap {
+	private final int[] heap,			//The ints in heap order.
+						position;		//Where each int is in heap, or -1 if it isn't.
+	private int[] key;
+	private int size = 0;
+	
+	public IndexedHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.position = new int[capacity];
+		Arrays.fill(position, -1);
+	}
+	
+	/**
+	 * Empty the heap, and order it by these keys from now on.
+	 */
+	public void reset(int[] key) {
+		for (int i = 0; i < size; ++i)
+			position[heap[i]] = -1;
+		size = 0;
+		this.key = key;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Add the int, or, if it's already here, move it up to where its (lower) key puts it.
+	 */
+	public void update(int item) {
+		int at = position[item];
+		if (at < 0) {
+			at = size++;
+			heap[at] = item;
+			position[item] = at;
+		}
+		siftUp(at);
+	}
+	
+	/**
+	 * @return	The int with the smallest key, which is taken out.
+	 */
+	public int poll() {
+		int top = heap[0];
+		position[top] = -1;
+		if (--size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+	
+	private boolean less(int a, int b) {
+		return key[a] < key[b] || (key[a] == key[b] && a < b);
+	}
+	
+	private void siftUp(int at) {
+		int item = heap[at];
+		while (at > 0) {
+			int parent = (at - 1) >>> 1;
+			if (!less(item, heap[parent]))
+				break;
+			move(heap[parent], at);
+			at = parent;
+		}
+		move(item, at);
+	}
+	
+	private void siftDown(int at) {
+		int item = heap[at];
+		while (true) {
+			int child = 2 * at + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && less(heap[child + 1], heap[child]))
+				++child;
+			if (!less(heap[child], item))
+				break;
+			move(heap[child], at);
+			at = child;
+		}
+		move(item, at);
+	}
+	
+	private void move(int item, int at) {
+		heap[at] = item;
+		position[item] = at;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * A quantile sketch for latencies in microseconds. Values under 64 get a bucket each;
+ * above that, every power of two is split into 64 buckets, so any quantile is within
+ * about 1% of the real one. Memory depends only on the largest value seen (a few KB
+ * for latencies up to minutes), never on how many were recorded, and two sketches
+ * merge by adding their buckets, so per-run or per-pair sketches can be combined.
+ * @author Justin
+ *
+ */
+public class LatencySketch {
+	private static final int SUB_BITS = 6,
+							 LINEAR = 1 << SUB_BITS;		//values with a bucket of their own
+	
+	private long[] buckets = new long[LINEAR * 2];		//grown as larger values show up
+	private long count = 0,
+				 sum = 0,
+				 min = Long.MAX_VALUE,
+				 max = 0;
+	
+	public void record(long value) {
+		if (value < 0) value = 0;
+		int bucket = bucketOf(value);
+		if (bucket >= buckets.length)
+			grow(bucket);
+		++buckets[bucket];
+		++count;
+		sum += value;
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+	
+	/**
+	 * Add everything recorded in the other sketch to this one.
+	 */
+	public void merge(LatencySketch other) {
+		if (other.count == 0)
+			return;
+		if (other.buckets.length > buckets.length)
+			grow(other.buckets.length - 1);
+		for (int i = 0; i < other.buckets.length; ++i)
+			buckets[i] += other.buckets[i];
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+	
+	public long getCount() { return count; }
+	public long getMin() { return count == 0 ? 0 : min; }
+	public long getMax() { return max; }
+	
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+	
+	/**
+	 * @param q		Between 0 and 1.
+	 * @return		The value at or under which this fraction of the recorded values fell:
+	 * 				the middle of its bucket, kept within the smallest and largest seen.
+	 */
+	public long getQuantile(double q) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(q * count);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int bucket = 0; bucket < buckets.length; ++bucket) {
+			seen += buckets[bucket];
+			if (seen >= rank)
+				return Math.max(min, Math.min(max, middleOf(bucket)));
+		}
+		return max;
+	}
+	
+	private void grow(int bucket) {
+		int length = buckets.length;
+		while (length <= bucket)
+			length <<= 1;
+		long[] grown = new long[length];
+		System.arraycopy(buckets, 0, grown, 0, buckets.length);
+		buckets = grown;
+	}
+	
+	private static int bucketOf(long value) {
+		if (value < LINEAR)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (LINEAR - 1);
+		return LINEAR + ((exponent - SUB_BITS) << SUB_BITS) + sub;
+	}
+	
+	private static long middleOf(int bucket) {
+		if (bucket < LINEAR)
+			return bucket;
+		int exponent = ((bucket - LINEAR) >> SUB_BITS) + SUB_BITS,
+			sub = (bucket - LINEAR) & (LINEAR - 1);
+		long width = 1L << (exponent - SUB_BITS);
+		return ((long) (LINEAR + sub) << (exponent - SUB_BITS)) + width / 2;
+	}
+}
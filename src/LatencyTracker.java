@@ -0,0 +1,273 @@
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Works out each frame's numbers from its trace the moment it finishes, and keeps them
+ * in LatencySketches instead of keeping the frames:
+ * 		- end-to-end latency (first arrival to finish), overall and per source/destination pair
+ * 		- collisions over the whole trip, per pair
+ * 		- queueing delay at each hop (arrival there to first attempt to send), per element
+ * 		- end-to-end latency per path, the routers the frame went through (e.g. "R0->R3",
+ * 		  or "direct" for frames that stayed on their bus)
+ * Memory grows with the number of elements, paths and pairs that have actually sent each
+ * other frames, never with the number of frames. Pairs are kept sparsely, since on a big
+ * network most of them never meet.
+ * @author Justin
+ *
+ */
+public class LatencyTracker implements SimulationEvents.FrameFinished {
+	private final ElementRegistry registry;
+	private final SimulationEvents events;
+	private final LatencySketch all = new LatencySketch();
+	private final PairTable pairs = new PairTable();
+	private LatencySketch[] queueing = new LatencySketch[0];		//by element ID
+	private final PathNode paths = new PathNode(-1, null);
+	
+	/**
+	 * One step of a path. Frames that went through the routers from the root down to here
+	 * are recorded in its sketch; paths are only built once, then just walked.
+	 */
+	private static class PathNode {
+		final int element;
+		final PathNode parent;
+		final ArrayList<PathNode> children = new ArrayList<PathNode>(2);
+		LatencySketch latency = null;
+		
+		PathNode(int element, PathNode parent) {
+			this.element = element;
+			this.parent = parent;
+		}
+		
+		PathNode child(int element) {
+			for (int i = 0; i < children.size(); ++i)
+				if (children.get(i).element == element)
+					return children.get(i);
+			PathNode child = new PathNode(element, this);
+			children.add(child);
+			return child;
+		}
+	}
+	
+	/**
+	 * The sketches for one source and destination.
+	 */
+	private static class Pair {
+		final LatencySketch latency = new LatencySketch(),
+							collisions = new LatencySketch();
+	}
+	
+	/**
+	 * Pairs by (source << 32) | destination, in an open-addressed table of primitive keys,
+	 * so looking one up allocates nothing.
+	 */
+	private static class PairTable {
+		private long[] keys = new long[16];
+		private Pair[] values = new Pair[16];
+		private int size = 0;
+		
+		static long key(int source, int destination) {
+			return (long) source << 32 | (destination & 0xFFFFFFFFL);
+		}
+		
+		/**
+		 * @return	The pair, or null if it isn't there.
+		 */
+		Pair get(long key) {
+			int slot = find(keys, values, key);
+			return values[slot];
+		}
+		
+		Pair getOrAdd(long key) {
+			int slot = find(keys, values, key);
+			if (values[slot] == null) {
+				if (2 * (size + 1) > keys.length) {
+					grow();
+					slot = find(keys, values, key);
+				}
+				keys[slot] = key;
+				values[slot] = new Pair();
+				++size;
+			}
+			return values[slot];
+		}
+		
+		/**
+		 * @return	Every key, sorted, so by source and then destination.
+		 */
+		long[] sortedKeys() {
+			long[] sorted = new long[size];
+			int n = 0;
+			for (int i = 0; i < keys.length; ++i)
+				if (values[i] != null)
+					sorted[n++] = keys[i];
+			Arrays.sort(sorted);
+			return sorted;
+		}
+		
+		private void grow() {
+			long[] oldKeys = keys;
+			Pair[] oldValues = values;
+			keys = new long[2 * oldKeys.length];
+			values = new Pair[2 * oldKeys.length];
+			for (int i = 0; i < oldKeys.length; ++i) {
+				if (oldValues[i] != null) {
+					int slot = find(keys, values, oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+		
+		/**
+		 * The slot the key is in, or the empty slot it would go in. The table is never full.
+		 */
+		private static int find(long[] keys, Pair[] values, long key) {
+			int mask = keys.length - 1,
+				slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while (values[slot] != null && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+	}
+	
+	public LatencyTracker(SimulationContext context) {
+		this.registry = context.getRegistry();
+		this.events = context.getEvents();
+		events.subscribeFrameFinished(this);
+	}
+	
+	/**
+	 * Stop listening, so a context that runs again doesn't record its frames here too.
+	 * The sketches stay, for writeOut and record.
+	 */
+	public void close() {
+		events.unsubscribeAll(this);
+	}
+	
+	@Override
+	public void onFrameFinished(Frame frame) {
+		FrameTrace trace = frame.getTrace();
+		int last = trace.size() - 1;
+		int source = trace.getElement(0),
+			destination = trace.getElement(last);
+		long latency = trace.getTime(last) - trace.getTime(0);
+		
+		all.record(latency);
+		Pair pair = pairs.getOrAdd(PairTable.key(source, destination));
+		pair.latency.record(latency);
+		pair.collisions.record(trace.getCollisions(last));
+		
+		PathNode path = paths;
+		int at = -1;			//where the frame is waiting to be sent, if anywhere
+		long arrived = 0;
+		for (int row = 0; row < last; ++row) {
+			switch (trace.getType(row)) {
+			case CREATE:
+				at = trace.getElement(row);
+				arrived = trace.getTime(row);
+				if (row > 0)
+					path = path.child(at);
+				break;
+			case START_TX:
+				if (at >= 0) {
+					queueingAt(at).record(trace.getTime(row) - arrived);
+					at = -1;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		if (path.latency == null)
+			path.latency = new LatencySketch();
+		path.latency.record(latency);
+	}
+	
+	public LatencySketch getLatency() {
+		return all;
+	}
+	
+	/**
+	 * @return	Latencies from the source to the destination, or null if no frame made that trip.
+	 */
+	public LatencySketch getLatency(String source, String destination) {
+		int from = registry.getID(source),
+			to = registry.getID(destination);
+		Pair pair = from >= 0 && to >= 0 ? pairs.get(PairTable.key(from, to)) : null;
+		return pair != null ? pair.latency : null;
+	}
+	
+	/**
+	 * @return	Queueing delays at the element, or null if no frame waited there.
+	 */
+	public LatencySketch getQueueing(String element) {
+		int id = registry.getID(element);
+		return id >= 0 && id < queueing.length ? queueing[id] : null;
+	}
+	
+	/**
+	 * Write every sketch to the file as
+	 * 		kind,key,count,mean,p50,p99,p999,max
+	 * where kind is all, latency or collisions (keyed by "A->C"), queueing (keyed by
+	 * element) or path (keyed by "R0->R3" or "direct").
+	 */
+	public void writeOut(String file) {
+		PrintWriter out = ProgressMonitor.getWriter(file);
+		if (out == null)
+			return;
+		out.println("kind,key,count,mean,p50,p99,p999,max");
+		writeRow(out, "all", "", all);
+		for (long key : pairs.sortedKeys()) {
+			Pair pair = pairs.get(key);
+			String name = registry.getName((int) (key >>> 32)) + "->" + registry.getName((int) key);
+			writeRow(out, "latency", name, pair.latency);
+			writeRow(out, "collisions", name, pair.collisions);
+		}
+		for (int id = 0; id < queueing.length; ++id)
+			if (queueing[id] != null)
+				writeRow(out, "queueing", registry.getName(id), queueing[id]);
+		writePaths(out, paths);
+		out.close();
+	}
+	
+	/**
+	 * Put the overall numbers in with the rest of the run's statistics.
+	 */
+	public void record(SimulationStatistics stats) {
+		stats.record("latency.mean", all.getMean());
+		stats.record("latency.p50", all.getQuantile(.5));
+		stats.record("latency.p99", all.getQuantile(.99));
+		stats.record("latency.p999", all.getQuantile(.999));
+	}
+	
+	private void writePaths(PrintWriter out, PathNode node) {
+		if (node.latency != null)
+			writeRow(out, "path", node.parent == null ? "direct" : pathName(node), node.latency);
+		for (PathNode child : node.children)
+			writePaths(out, child);
+	}
+	
+	private String pathName(PathNode node) {
+		if (node.parent == null)
+			return "";
+		String before = pathName(node.parent);
+		return (before.isEmpty() ? "" : before + "->") + registry.getName(node.element);
+	}
+	
+	private static void writeRow(PrintWriter out, String kind, String key, LatencySketch sketch) {
+		out.println(kind + "," + key + "," + sketch.getCount() + "," + String.format("%.2f", sketch.getMean()) + ","
+				+ sketch.getQuantile(.5) + "," + sketch.getQuantile(.99) + "," + sketch.getQuantile(.999) + "," + sketch.getMax());
+	}
+	
+	private LatencySketch queueingAt(int element) {
+		if (element >= queueing.length) {
+			LatencySketch[] grown = new LatencySketch[registry.size()];
+			System.arraycopy(queueing, 0, grown, 0, queueing.length);
+			queueing = grown;
+		}
+		if (queueing[element] == null)
+			queueing[element] = new LatencySketch();
+		return queueing[element];
+	}
+}
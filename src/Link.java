@@ -1,10 +1,12 @@
-import java.util.Random;
+import java.util.SplittableRandom;
 public class Link extends Bus {
 	private int cost; 
-	private static Random rand = new Random();
+	boolean costChanged = false;	//Has the cost moved since routing last looked?
+	private final SplittableRandom rand;
 	
-	public Link(String name) {
-		super(name);
+	public Link(String name, SimulationContext context) {
+		super(name, context);
+		this.rand = context.getRandom().streamFor(name);
 	}	
 	
 	@Override
@@ -14,12 +16,17 @@ public class Link extends Bus {
 		destination.acceptFrameFromRouter(frame);
 		src.acceptACK(frame);
 		numTransmitting--; 
-		ProgressMonitor.recordDelivery(frame);
+		events.delivered(frame, this);
 	}
 	
 	public int getCost() { return cost; }
 	public void randomCost() { 
+		int before = cost;
 		this.cost = rand.nextInt(10) + 1; 
-		ProgressMonitor.write("Link " + this.name + " cost = " + cost);
+		if (cost != before && !costChanged) {
+			costChanged = true;
+			context.linkCostChanged(this);
+		}
+		monitor.recordLinkCost(this, cost);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+/**
+ * How much the ProgressMonitor keeps. Each level includes everything above it.
+ */
+public enum LogLevel {
+	OFF,			//Nothing; a quiet run never builds a message.
+	INFO,			//Link costs as they change.
+	DEBUG,			//Every transmission start and finish, delivery and collision.
+	TRACE;			//Also every routing table and Dijkstra printout.
+	
+	public boolean includes(LogLevel other) {
+		return other.ordinal() <= ordinal();
+	}
+}
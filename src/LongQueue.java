@@ -0,0 +1,78 @@
+/**
+ * A first-in, first-out queue of primitive longs, kept in fixed-size chunks. A queue
+ * that keeps growing (a node that can't keep up with its arrivals) only allocates the
+ * chunks it needs to hold its values, instead of doubling and copying everything each
+ * time it fills up. The last chunk emptied is kept for the next time one is needed,
+ * so a queue that rises and falls allocates nothing once it has grown to its working size.
+ */
+public class LongQueue {
+	private final int chunkSize,			//a power of two
+					  chunkMask;
+	private long[][] chunks;				//a ring of chunks, the oldest value's first
+	private long[] spare = null;			//the last chunk emptied, if not used again yet
+	private int first = 0,					//index in chunks of the oldest value's chunk
+				chunkCount = 1,
+				head = 0,					//index of the oldest value in its chunk
+				size = 0;
+	
+	/**
+	 * @param initialCapacity	How many values fit before another chunk is needed; chunks are this big.
+	 */
+	public LongQueue(int initialCapacity) {
+		chunkSize = Math.max(2, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1);
+		chunkMask = chunkSize - 1;
+		chunks = new long[4][];
+		chunks[0] = new long[chunkSize];
+	}
+	
+	public void add(long value) {
+		int tail = head + size,
+			chunk = tail / chunkSize;
+		if (chunk == chunkCount)
+			addChunk();
+		chunks[(first + chunk) & (chunks.length - 1)][tail & chunkMask] = value;
+		++size;
+	}
+	
+	public long remove() {
+		if (size == 0)
+			throw new IllegalStateException("LongQueue: remove from an empty queue.");
+		long value = chunks[first][head];
+		--size;
+		if (++head == chunkSize) {
+			head = 0;
+			if (chunkCount > 1) {		//move on to the next chunk, and keep this one
+				spare = chunks[first];
+				chunks[first] = null;
+				first = (first + 1) & (chunks.length - 1);
+				--chunkCount;
+			}
+		} else if (size == 0) {
+			head = 0;
+		}
+		return value;
+	}
+	
+	public long peek() {
+		if (size == 0)
+			throw new IllegalStateException("LongQueue: peek at an empty queue.");
+		return chunks[first][head];
+	}
+	
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+	public void clear() { head = 0; size = 0; }
+	
+	private void addChunk() {
+		if (chunkCount == chunks.length) {		//only the references are copied
+			long[][] bigger = new long[chunks.length << 1][];
+			for (int i = 0; i < chunkCount; ++i)
+				bigger[i] = chunks[(first + i) & (chunks.length - 1)];
+			chunks = bigger;
+			first = 0;
+		}
+		chunks[(first + chunkCount) & (chunks.length - 1)] = spare != null ? spare : new long[chunkSize];
+		spare = null;
+		++chunkCount;
+	}
+}
@@ -0,0 +1,158 @@
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Samples the network every so often and writes a time series, so queue growth and
+ * throughput collapse show up while they happen instead of only in the final totals.
+ * 
+ * Every probe (a few slots) the depth of each node's buffer and each router's two
+ * buffers goes into a histogram. Every interval (a second, by default) one row per
+ * element and metric is written to metrics.csv:
+ * 		time,element,metric,value,p50,p99,max
+ * where for a bus or link value is the fraction of the interval it was busy ("busy"),
+ * the collisions on it ("collisions") or the frames delivered over it ("delivered"),
+ * and for a queue ("buffer", "fromNode", "fromRouter") it's the mean depth.
+ * @author Justin
+ *
+ */
+public class MetricsCollector implements EventHandler, SimulationEvents.BusCollision, SimulationEvents.Delivered {
+	public static final long SLOTS_PER_SECOND = 1000000 / Clock.slotsToTime(1);
+	private static final long PROBE_SLOTS = Clock.slotsPerTableUpdate();		//the clock stops there anyway
+	
+	private final Clock clock;
+	private final SimulationEvents events;
+	private final PrintWriter out;
+	private final long interval,		//in microseconds
+					   probe;
+	private long intervalStart;
+	
+	private final ArrayList<Node> nodes;
+	private final ArrayList<Router> routers;
+	private final ArrayList<Bus> busses;
+	private final IdentityHashMap<Bus, BusCounts> busCounts = new IdentityHashMap<Bus, BusCounts>();
+	private final DepthHistogram[] nodeBuffers,
+								   fromNode,
+								   fromRouter;
+	
+	/**
+	 * What happened on one bus since the last row.
+	 */
+	private static class BusCounts {
+		long busyAtStart;
+		int collisions,
+			delivered;
+	}
+	
+	/**
+	 * Start sampling now, writing a row every intervalSlots slots.
+	 */
+	public MetricsCollector(SimulationContext context, long intervalSlots,
+			ArrayList<Node> nodes, ArrayList<Router> routers, ArrayList<Bus> busses) {
+		if (intervalSlots < 1)
+			throw new IllegalArgumentException("MetricsCollector: the interval must be at least a slot.");
+		this.clock = context.getClock();
+		this.events = context.getEvents();
+		this.interval = Clock.slotsToTime(intervalSlots);
+		this.probe = Clock.slotsToTime(Math.min(intervalSlots, PROBE_SLOTS));
+		this.nodes = nodes;
+		this.routers = routers;
+		this.busses = busses;
+		
+		nodeBuffers = histograms(nodes.size());
+		fromNode = histograms(routers.size());
+		fromRouter = histograms(routers.size());
+		for (Bus bus : busses)
+			busCounts.put(bus, new BusCounts());
+		
+		out = ProgressMonitor.getWriter(context.getOutputPrefix() + "metrics.csv");
+		if (out != null)
+			out.println("time,element,metric,value,p50,p99,max");
+		
+		events.subscribeBusCollision(this);
+		events.subscribeDelivered(this);
+		intervalStart = clock.time();
+		clock.addStep(probe, EventType.SAMPLE, this);
+	}
+	
+	@Override
+	public void onBusCollision(Bus bus) {
+		BusCounts counts = busCounts.get(bus);
+		if (counts != null) ++counts.collisions;
+	}
+	
+	@Override
+	public void onDelivered(Frame frame, Bus path) {
+		BusCounts counts = busCounts.get(path);
+		if (counts != null) ++counts.delivered;
+	}
+	
+	/**
+	 * Probe the queues, and write out the interval if it's over.
+	 */
+	@Override
+	public void handleEvent(Event event) {
+		for (int i = 0; i < nodes.size(); ++i)
+			nodeBuffers[i].record(nodes.get(i).getBuffer());
+		for (int i = 0; i < routers.size(); ++i) {
+			fromNode[i].record(routers.get(i).getFromNodeBuffer());
+			fromRouter[i].record(routers.get(i).getFromRouterBuffer());
+		}
+		
+		if (clock.time() - intervalStart >= interval)
+			writeInterval();
+		clock.addStep(probe, EventType.SAMPLE, this);
+	}
+	
+	/**
+	 * Write out whatever is left of the last interval, close the file, and stop listening,
+	 * so a context that runs again doesn't count its collisions and deliveries here too.
+	 */
+	public void close() {
+		events.unsubscribeAll(this);
+		if (clock.time() > intervalStart)
+			writeInterval();
+		if (out != null)
+			out.close();
+	}
+	
+	private void writeInterval() {
+		long now = clock.time(),
+			 length = now - intervalStart;
+		String time = String.format("%.6f", (double) now / 1000000);
+		
+		for (Bus bus : busses) {
+			BusCounts counts = busCounts.get(bus);
+			long busy = bus.getBusyTime();
+			if (out != null) {
+				out.println(time + "," + bus.getName() + ",busy," + String.format("%.4f", (double) (busy - counts.busyAtStart) / length) + ",,,");
+				out.println(time + "," + bus.getName() + ",collisions," + counts.collisions + ",,,");
+				out.println(time + "," + bus.getName() + ",delivered," + counts.delivered + ",,,");
+			}
+			counts.busyAtStart = busy;
+			counts.collisions = 0;
+			counts.delivered = 0;
+		}
+		for (int i = 0; i < nodes.size(); ++i)
+			writeHistogram(time, nodes.get(i).getName(), "buffer", nodeBuffers[i]);
+		for (int i = 0; i < routers.size(); ++i) {
+			writeHistogram(time, routers.get(i).getName(), "fromNode", fromNode[i]);
+			writeHistogram(time, routers.get(i).getName(), "fromRouter", fromRouter[i]);
+		}
+		intervalStart = now;
+	}
+	
+	private void writeHistogram(String time, String element, String metric, DepthHistogram histogram) {
+		if (out != null)
+			out.println(time + "," + element + "," + metric + "," + String.format("%.2f", histogram.getMean()) + ","
+					+ histogram.getQuantile(.5) + "," + histogram.getQuantile(.99) + "," + histogram.getMax());
+		histogram.reset();
+	}
+	
+	private static DepthHistogram[] histograms(int count) {
+		DepthHistogram[] histograms = new DepthHistogram[count];
+		for (int i = 0; i < count; ++i)
+			histograms[i] = new DepthHistogram();
+		return histograms;
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.SplittableRandom;
+
+/**
+ * A Markov-modulated Poisson process: the source is always in one of several states,
+ * each with its own Poisson arrival rate, and at the end of every slot it moves to
+ * another state according to a transition matrix. Good for traffic that comes in 
+ * bursts whose rate and length both vary.
+ *
+ * When skipping idle slots, a silent state (rate 0) is left in one jump: how long the
+ * source stays is geometric, and where it goes next is the row without the chance of
+ * staying. A source that can't reach any state with arrivals says NEVER at once.
+ * @author Justin
+ *
+ */
+public class MmppTraffic extends TrafficGenerator {
+	private final PoissonDistribution[] arrivals;	//one per state
+	private final AliasTable[] transitions;			//one row per state
+	private final AliasTable[] leaving;				//per silent state: where it goes when it leaves, or null if it never does
+	private final double[] staying;					//per state: the chance of staying another slot
+	private final boolean[] silent,					//per state: no arrivals at all?
+							canSend;				//per state: can it reach a state with arrivals (itself included)?
+	private int state,
+				pending = 0;						//Arrivals in the slot slotsUntilArrival stopped at.
+	
+	/**
+	 * @param rates			Mean arrivals per slot in each state.
+	 * @param transitions	transitions[i][j] is the chance of going from state i to state j after a slot.
+	 * @param start			The state to start in.
+	 * @param rand			The owner's random number stream.
+	 */
+	public MmppTraffic(double[] rates, double[][] transitions, int start, SplittableRandom rand) {
+		super(rand);
+		if (transitions.length != rates.length)
+			throw new IllegalArgumentException("MmppTraffic: need one row of transitions per state.");
+		
+		int n = rates.length;
+		this.arrivals = new PoissonDistribution[n];
+		this.transitions = new AliasTable[n];
+		this.leaving = new AliasTable[n];
+		this.staying = new double[n];
+		this.silent = new boolean[n];
+		for (int i = 0; i < n; ++i) {
+			if (transitions[i].length != n)
+				throw new IllegalArgumentException("MmppTraffic: transition row " + i + " has the wrong length.");
+			this.arrivals[i] = new PoissonDistribution(rates[i], rand);
+			this.transitions[i] = new AliasTable(transitions[i], 0);
+			
+			double total = 0;
+			for (double p : transitions[i])
+				total += p;
+			this.staying[i] = total > 0 ? transitions[i][i] / total : 1;
+			this.silent[i] = rates[i] <= 0;
+			if (silent[i] && staying[i] < 1) {
+				double[] away = transitions[i].clone();
+				away[i] = 0;
+				this.leaving[i] = new AliasTable(away, 0);
+			}
+		}
+		this.canSend = canSend(transitions, silent);
+		this.state = start;
+	}
+	
+	/**
+	 * Which states lead, sooner or later, to one with arrivals: start from those and
+	 * work backwards along every transition that can happen.
+	 */
+	private static boolean[] canSend(double[][] transitions, boolean[] silent) {
+		int n = silent.length;
+		boolean[] can = new boolean[n];
+		for (int i = 0; i < n; ++i)
+			can[i] = !silent[i];
+		for (boolean grew = true; grew; ) {
+			grew = false;
+			for (int i = 0; i < n; ++i)
+				for (int j = 0; j < n && !can[i]; ++j)
+					if (can[j] && transitions[i][j] > 0) {
+						can[i] = true;
+						grew = true;
+					}
+		}
+		return can;
+	}
+	
+	@Override
+	public int next() {
+		int arrived = arrivals[state].next();
+		state = transitions[state].sample(rand);
+		return arrived;
+	}
+	
+	/**
+	 * Silent stretches go by a whole stay at a time; states with arrivals slot by slot.
+	 */
+	@Override
+	public long slotsUntilArrival() {
+		long empty = 0;
+		while (empty < MAX_EMPTY_SLOTS) {
+			if (!canSend[state])
+				return NEVER;
+			if (silent[state]) {
+				empty += stay(staying[state]);
+				state = leaving[state].sample(rand);
+				continue;
+			}
+			if ((pending = next()) > 0)
+				return empty;
+			++empty;
+		}
+		return NEVER;
+	}
+	
+	@Override
+	public int nextPositive() {
+		return pending;
+	}
+	
+	/**
+	 * How many slots in a row the source stays, staying after each with probability p < 1.
+	 */
+	private long stay(double p) {
+		if (p <= 0)
+			return 1;
+		double u = 1. - rand.nextDouble();	//in (0, 1]
+		double slots = 1 + Math.floor(Math.log(u) / Math.log(p));
+		return slots >= MAX_EMPTY_SLOTS ? MAX_EMPTY_SLOTS : (long) slots;
+	}
+	
+	public int getState() {
+		return state;
+	}
+}
@@ -1,5 +1,5 @@
 
-public interface NetworkElementInterface {
+public interface NetworkElementInterface extends EventHandler {
 
 	void addBus(Bus b);
 	
@@ -26,6 +26,11 @@ public interface NetworkElementInterface {
 	void acceptACK(Frame f);
 
 	String getName();
+	
+	/**
+	 * The ID this element's name has in the simulation's ElementRegistry.
+	 */
+	int getElementID();
 
 	int getBuffer();
 
@@ -1,29 +1,37 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class Node implements NetworkElementInterface {
 	private final String NAME;
-	private final PoissonDistribution poisson 	= new PoissonDistribution(.5);	//How often do frames arrive?
+	private final int ELEMENT_ID;
+	private final SimulationContext context;
+	private final Clock clock;
+	private final SimulationEvents events;
+	private final SplittableRandom rand;										//This node's own random number stream.
+	private final TrafficGenerator traffic;										//How often do frames arrive?
 	private final CSMACD csmacd 				= new CSMACD();					//How do nodes know if it's okay to transmit?	
-	private final RandomBackoff random 			= new RandomBackoff();			//How does the node choose how long to wait?	
-	private ArrayList<Bus> busses				= new ArrayList<Bus>();			//What busses are connected to this node?
+	private final RandomBackoff random;											//How does the node choose how long to wait?	
+	private ArrayList<Bus> busses				= new ArrayList<Bus>();			//What busses are connected to this node? Added to by Bus.addNode.
 	private int currentBackoff 					= 0,							//How many slots does this node have to wait before transmitting?
 				currentID 						= 0,							//What frame # is next?
-				buffer							= 0,							//How many nodes are waiting in the queue	
+				buffer							= 0,							//How many frames are waiting in the queue	
 				currentCollisions				= 0,							//How many times has this node detected a collision for the current frame?
 				collisionsAtNode				= 0;							//How many times has this node detected a collision overall?
 	//DATA FOR CURRENT FRAME SENT OUT
-	private Bus usingBus						= null;	
-	private long frameFinish					= -1l,
-				 frameCollisionCheck			= -1l;	
+	private Bus usingBus						= null,	
+				currentPath						= null;							//The bus the current frame goes out on, every time it's sent.
+	private Frame current						= null;							//Null until the head of the queue is first sent.
+	private long frameFinish					= Clock.NO_EVENT,				//Handles on pending events for the frame, cancelled on collision or ACK.
+				 frameCollisionCheck			= Clock.NO_EVENT,	
+				 slotWakeup						= Clock.NO_EVENT;				//Next SLOT event, when skipping idle slots.
 	//MISC DATA					
-	private int frame_num 						= 200000;						//But for a window size greater than 1, it might need it?
-	private ArrayList<Frame> frames				= new ArrayList<Frame>(frame_num);	//All frames.
-	private ArrayList<Node> allNodes;
-	private PrintWriter writer;													//Writer for this node's stats file.
+	private LongQueue arrivalTimes				= new LongQueue(64);			//When each queued frame arrived; frames are built only when sent.
+	private ArrayDeque<Frame> framePool			= new ArrayDeque<Frame>();		//Finished frames, ready to be used again.
+	private ArrayList<Node> allNodes;											//Every node in the simulation, this one included; shared by all of them.
+	private int allNodesIndex;													//Where this node is in allNodes.
+	private TraceWriter traceWriter;											//Background writer for this node's stats file, or null if not writing.
+	private TraceWriter.TraceFile traceFile;
 	
 	private String status = "";
 	public String status() { return status + (status.compareTo("col") == 0 ? "-" + currentBackoff : ""); }
@@ -31,23 +39,71 @@ public class Node implements NetworkElementInterface {
 	
 	/**
 	 * Constructor; now takes in only name and assumes distribution, access, backoff will be same.
+	 * Frames arrive the context's default way, Poisson with a mean of .5 per slot unless it's changed.
 	 * @param name
+	 * @param context	The simulation this node belongs to.
 	 */
-	public Node(String name) {
+	public Node(String name, SimulationContext context) {
+		this(name, context, null);
+	}
+	
+	/**
+	 * @param traffic	How frames arrive at this node, or null for the context's default. Its
+	 * 					generator draws from this node's own stream, the one backoff and
+	 * 					destinations draw from too.
+	 */
+	public Node(String name, SimulationContext context, TrafficModel traffic) {
 		this.NAME = name;
+		this.ELEMENT_ID = context.getRegistry().intern(name);
+		this.context = context;
+		this.clock = context.getClock();
+		this.events = context.getEvents();
+		this.rand = context.getRandom().streamFor(name);
+		this.traffic = (traffic != null ? traffic : context.getTraffic()).create(rand);
+		this.random = new RandomBackoff(rand);
 		
-		for (int i = 0; i <= frame_num; ++i) 
-			frames.add(new Frame(i));
-		this.writer = ProgressMonitor.getWriter(this.NAME + ".csv");
+		if (context.isWritingFrames()) {
+			this.traceWriter = context.getTraceWriter();
+			this.traceFile = traceWriter.open(context.getOutputPrefix() + this.NAME + context.getTraceFormat().getExtension(),
+					context.getTraceFormat());
+		}
 	}
+	
+	/**
+	 * Each frame's record is handed to the trace writer as soon as it finishes, so all
+	 * that's left is to close up. Only the first call does anything.
+	 */
 	public void writeOut() {
-		for (Frame frame : frames) {
-			if (frame.isFinished()) {
-				writer.println(frame.toString());
-				writer.flush();
-			} else break;
-		}
-		writer.close();
+		if (traceWriter != null)
+			traceWriter.close(traceFile);
+		traceWriter = null;
+		traceFile = null;
+	}
+	
+	/**
+	 * Called when a frame this node sent reaches its destination. It's published as
+	 * finished, its record is written out, and it goes back in the pool for a later
+	 * arrival. Its fields are left alone until then, since whoever delivered it may
+	 * still look at it.
+	 */
+	public void frameFinished(Frame frame) {
+		events.frameFinished(frame);
+		if (traceWriter != null)
+			traceWriter.write(traceFile, frame);
+		framePool.add(frame);
+	}
+	
+	/**
+	 * Build the frame at the head of the queue, from the pool if one is free.
+	 */
+	private Frame takeFrame() {
+		Frame frame = framePool.poll();
+		if (frame == null)
+			frame = new Frame(currentID, context);
+		else
+			frame.recycle(currentID);
+		frame.create(this, arrivalTimes.remove());
+		return frame;
 	}
 	
 	
@@ -60,16 +116,38 @@ public class Node implements NetworkElementInterface {
 	}
 
 	public void generateFrames() {
-		int arrived = poisson.next();
-		
-		for (int i = all; i < all + arrived && i < frame_num; ++i) {
-			frames.get(i).create(this);
+		arrive(traffic.next());
+	}
+	
+	/**
+	 * When skipping idle slots, frames aren't drawn every slot. Instead the node jumps
+	 * straight to the next slot that has any arrivals.
+	 */
+	public void startArrivals() {
+		scheduleArrival(traffic.slotsUntilArrival());
+	}
+	
+	private void scheduleArrival(long slotsFromNow) {
+		if (slotsFromNow != TrafficGenerator.NEVER)
+			clock.addStep(Clock.slotsToTime(slotsFromNow), EventType.FRAME_ARRIVAL, this);
+	}
+	
+	private void arrive(int arrived) {
+		for (int i = 0; i < arrived; ++i) {
+			arrivalTimes.add(clock.time());
 		}
 		
 		buffer += arrived;	
 		all += arrived;
 	}
 	
+	/**
+	 * Does this node need to be looked at next slot? Same test sendFrameIfReady makes.
+	 */
+	private boolean hasSlotWork() {
+		return currentBackoff > 0 || buffer > 0 || current != null;
+	}
+	
 	/* (non-Javadoc)
 	 * @see NetworkInterface#sendFrameIfReady()
 	 */
@@ -77,12 +155,12 @@ public class Node implements NetworkElementInterface {
 	public void sendFrameIfReady() {
 		currentBackoff = Math.max(currentBackoff-1, 0);
 		if (currentBackoff > 0 
-				|| (buffer == 0 && !frames.get(currentID).isAlreadyInitialized()) || usingBus != null)	
+				|| (buffer == 0 && current == null) || usingBus != null)	
 			return;	
 
 		status = "";
-		Node dest = getRandomDestination(); //TODO: With only one, it doesn't matter if I record the destination.
-		Bus path = findBestPath(dest);		//may throw exception if no path at all	
+		Node dest = getRandomDestination(); //Only used for a new frame; a resent one keeps its own.
+		Bus path = current != null ? currentPath : findBestPath(dest);		//may throw exception if no path at all	
 		if (csmacd.canAccess(path)) { 		//Checks to see if the path can be accessed.
 			sendFrame(dest, path);
 			status = "(tx)";
@@ -100,40 +178,54 @@ public class Node implements NetworkElementInterface {
 	private final long TRANS_TIME = (1000000 * FRAME_SIZE) / TRANS_SPEED;	//in b/s
 	
 	private void sendFrame(Node dest, Bus path) {	
-		Frame frame = frames.get(currentID); //- 1 is to offset: Frame 1 is at position 0, etc.
+		if (current == null) 
+			current = takeFrame();
+		Frame frame = current;
 		if (!frame.isAlreadyInitialized()) {
 			frame.setValues(this, dest, FRAME_SIZE);
 			frame.startTx();
 			--buffer;			//One less frame on the queue.
 			
-			if (getAccessibleNodes().contains(dest))
+			if (dest.isOn(path))
 				frame.setNextHop(dest);
 			else 		
 				frame.setNextHop(getRandomRouter(path));
+			currentPath = path;
 		}
 		
 		usingBus = path;
-		frameFinish = Clock.addStep(TRANS_TIME);
-		frameCollisionCheck = Clock.addStep(path.getPropTime(frame));	
+		frameFinish = clock.addStep(TRANS_TIME, EventType.TRANSMISSION_FINISH, this);
+		frameCollisionCheck = clock.addStep(path.getPropTime(frame), EventType.COLLISION_CHECK, this);	
 		path.claim();											//One more node transmitting to this path.
 		
-		ProgressMonitor.recordTransmissionStart(frame, path);		
+		events.transmissionStarted(frame, path);		
 	}
 
 	private Router getRandomRouter(Bus path) {
-		Router randomRouter = null;
-		Iterable<Router> routers = path.getRouters();
-		int index = new Random().nextInt(2),
-			i = 0;
-		
-		for (Router router : routers) {
-			if (i == index) {
-				randomRouter = router;
-				break;
-			} else
-				++i;
+		return path.getRouter(rand.nextInt(path.getRouterCount()));
+	}
+	
+	/* (non-Javadoc)
+	 * @see EventHandler#handleEvent(Event)
+	 */
+	@Override
+	public void handleEvent(Event event) {
+		switch (event.getType()) {
+		case TRANSMISSION_FINISH:	finishTransmission(); break;
+		case COLLISION_CHECK:		checkCollision(); break;
+		case FRAME_ARRIVAL:
+			arrive(traffic.nextPositive());
+			slotWakeup = clock.addSlotStep(slotWakeup, this, true);
+			long empty = traffic.slotsUntilArrival();
+			scheduleArrival(empty == TrafficGenerator.NEVER ? empty : 1 + empty);
+			break;
+		case SLOT:
+			sendFrameIfReady();
+			if (hasSlotWork())
+				slotWakeup = clock.addSlotStep(slotWakeup, this, false);
+			break;
+		default:					break;
 		}
-		return randomRouter;
 	}
 	
 	/* (non-Javadoc)
@@ -141,59 +233,59 @@ public class Node implements NetworkElementInterface {
 	 */
 	@Override
 	public void finishTransmission() {
-		if (Clock.equalsTime(frameFinish)) {	
-			Frame frame = frames.get(currentID);
+		if (clock.isDue(frameFinish)) {	
+			Frame frame = current;
 			usingBus.acceptFrame(frame);			
 			frame.finishTx();
-			ProgressMonitor.recordTransmissionFinish(frame, usingBus);
+			events.transmissionFinished(frame, usingBus);
 			status = "";
 		}
 	}
 
 	/**
-	 * Find the best path to get to the destination node.
+	 * Find the best path to get to the destination node: a bus it's on, if there is one,
+	 * or else a bus with a router on it, idle ones first.
 	 * @param dest		The node to get to.
 	 * @return			The best path to get to that node.
-	 * @throws UnsupportedOperationException
+	 * @throws UnsupportedOperationException	if none of this node's busses can get there.
 	 */
-	private Bus findBestPath(NetworkElementInterface dest) throws UnsupportedOperationException {
-		return busses.iterator().next(); //shortcut because I know there'll be only one
+	private Bus findBestPath(Node dest) throws UnsupportedOperationException {
+		for (int i = 0; i < busses.size(); ++i)
+			if (dest.isOn(busses.get(i)))
+				return busses.get(i);
+		
+		Bus routed = null;
+		for (int i = 0; i < busses.size(); ++i) {
+			Bus bus = busses.get(i);
+			if (bus.getRouterCount() > 0) {
+				if (!bus.isBusy())
+					return bus;
+				if (routed == null)
+					routed = bus;
+			}
+		}
 		
-		/**
-		 * Commented out, for when we have more than two nodes.
-		 */
-//		Bus path = null;
-//		
-//		//TODO: What if I want to find the shortest path?
-//		for (Bus bus : busses) {
-//			double distance = bus.getDistance(this, dest);
-//			if (distance < Double.POSITIVE_INFINITY) {
-//				path = bus;
-//				break;
-//			}
-//		}
-//		
-//		if (path == null)
-//			throw new UnsupportedOperationException("sendFrames: No viable path to destination");
-//		
-//		return path;
+		if (routed == null)
+			throw new UnsupportedOperationException("sendFrames: No viable path from " + NAME + " to " + dest.getName());
+		return routed;
 	}
 	
 	/**
 	 * For all nodes currently in transmission, check to see if there has been a collision on the Bus.
 	 */
 	public void checkCollision() {	
-		if (Clock.equalsTime(frameCollisionCheck)) {
+		if (clock.isDue(frameCollisionCheck)) {
 			if (usingBus.hasCollision()) {
 				++currentCollisions;
 				++collisionsAtNode;
-				frames.get(currentID).collide();
+				current.collide();
 				
 				currentBackoff = this.random.getBackoff(currentCollisions);
 				usingBus.release();
 				resetTimes();
 				
-				ProgressMonitor.recordCollision(this, frames.get(currentID), currentBackoff);
+				events.collision(this, current, currentBackoff);
+				slotWakeup = clock.addSlotStep(slotWakeup, this, true);
 				status = "col";
 			} else status = "tx";
 		}
@@ -206,22 +298,30 @@ public class Node implements NetworkElementInterface {
 	public void acceptFrameFromNode(Frame f) {
 		f.deliverAndACK();
 		f.finish();
+		f.getSource().frameFinished(f);
 	}
 	
 	/**
-	 * When the ACK returns, remove the frame from any storage.
+	 * When the ACK returns, the frame is off this node's hands (it may still be on its way
+	 * through the routers; it comes back to the pool when it finishes).
 	 */
 	public void acceptACK(Frame frame) {
 		++currentID;
+		current = null;
 		resetTimes();
 		currentCollisions = 0;
 		//frame.deliverAndACK();
 	}
 
+	/**
+	 * Revoke whatever is still pending for the current frame so the clock never wakes up for it.
+	 */
 	private void resetTimes() {
 		usingBus = null;
-		frameFinish = -1l;
-		frameCollisionCheck = -1l;
+		clock.cancel(frameFinish);
+		clock.cancel(frameCollisionCheck);
+		frameFinish = Clock.NO_EVENT;
+		frameCollisionCheck = Clock.NO_EVENT;
 	}
 	
 	/**
@@ -230,25 +330,23 @@ public class Node implements NetworkElementInterface {
 	 * @throws UnsupportedOperationException	if no destination is available.
 	 */
 	public Node getRandomDestination() throws UnsupportedOperationException {
-		Random rand = new Random();
-		int index = rand.nextInt(allNodes.size());
-		return allNodes.get(index);
+		if (allNodes.size() < 2)
+			throw new UnsupportedOperationException(NAME + " has no other node to send to.");
+		int index = rand.nextInt(allNodes.size() - 1);		//Draw among the others, then step over this one.
+		return allNodes.get(index < allNodesIndex ? index : index + 1);
 	}
 	
+	public int getBusCount() { return busses.size(); }
+	public Bus getBus(int index) { return busses.get(index); }
+	
 	/**
-	 * get all nodes that are accessible from this.
-	 * @return
+	 * Is this node on the bus? Nodes are on only a bus or two, so this is a short scan.
 	 */
-	private ArrayList<Node> getAccessibleNodes() {
-		ArrayList<Node> accessibleNodes = new ArrayList<Node>();
-		for (Bus bus : this.busses) {
-			for (Node node : bus.getNodes()) {
-				if (!accessibleNodes.contains(node) && !node.equals(this)) {
-					accessibleNodes.add(node);
-				}
-			}				
-		}
-		return accessibleNodes;
+	public boolean isOn(Bus bus) {
+		for (int i = 0; i < busses.size(); ++i)
+			if (busses.get(i) == bus)
+				return true;
+		return false;
 	}
 	
 	/**
@@ -267,6 +365,11 @@ public class Node implements NetworkElementInterface {
 		return this.NAME;
 	}
 	
+	@Override
+	public int getElementID() {
+		return this.ELEMENT_ID;
+	}
+	
 	/* (non-Javadoc)
 	 * @see NetworkInterface#getBuffer()
 	 */
@@ -283,11 +386,14 @@ public class Node implements NetworkElementInterface {
 		return collisionsAtNode;
 	}	
 	
-	public void setAllNodes(ArrayList<Node> nodes) {
-		if (nodes.contains(this))
-			nodes.remove(this);
-		
+	/**
+	 * @param nodes	Every node in the simulation, this one included. The list is shared, not copied,
+	 * 				so a big network doesn't hold a copy per node.
+	 * @param index	Where this node is in the list.
+	 */
+	public void setAllNodes(ArrayList<Node> nodes, int index) {
 		allNodes = nodes;
+		allNodesIndex = index;
 	}
 
 	@Override
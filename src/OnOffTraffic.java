@@ -0,0 +1,26 @@
+import java.util.SplittableRandom;
+
+/**
+ * The simplest bursty source: on for a while, sending Poisson arrivals at a fixed rate,
+ * then off and silent for a while. How long each period lasts is geometric, with the
+ * given means. A two-state MMPP.
+ */
+public class OnOffTraffic extends MmppTraffic {
+	
+	/**
+	 * @param onRate		Mean arrivals per slot while on.
+	 * @param meanOnSlots	Mean length of an on period, in slots (at least 1).
+	 * @param meanOffSlots	Mean length of an off period, in slots (at least 1).
+	 * @param rand			The owner's random number stream.
+	 */
+	public OnOffTraffic(double onRate, double meanOnSlots, double meanOffSlots, SplittableRandom rand) {
+		super(new double[] { onRate, 0 }, 
+			  new double[][] { { 1 - 1 / meanOnSlots, 1 / meanOnSlots }, 
+							   { 1 / meanOffSlots, 1 - 1 / meanOffSlots } },
+			  0, rand);
+	}
+	
+	public boolean isOn() {
+		return getState() == 0;
+	}
+}
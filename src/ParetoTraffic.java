@@ -0,0 +1,60 @@
+import java.util.SplittableRandom;
+
+/**
+ * Heavy-tailed traffic: single frames whose gaps (in slots, not rounded) are Pareto
+ * distributed. With a shape near 1 most gaps are short but a few are enormous, which
+ * is what makes buffers fill in bursts. The scale is chosen so the long-run mean rate
+ * is the one asked for.
+ * @author Justin
+ *
+ */
+public class ParetoTraffic extends TrafficGenerator {
+	private final double shape,
+						 scale;				//shortest possible gap, in slots
+	private double slot = 0,				//start of the next slot, in slots
+				   nextArrival;				//time of the next frame, in slots
+	
+	/**
+	 * @param rate		Mean arrivals per slot.
+	 * @param shape		Pareto shape; must be more than 1 for the mean to exist.
+	 * @param rand		The owner's random number stream.
+	 */
+	public ParetoTraffic(double rate, double shape, SplittableRandom rand) {
+		super(rand);
+		if (shape <= 1 || rate <= 0)
+			throw new IllegalArgumentException("ParetoTraffic: need shape > 1 and rate > 0.");
+		this.shape = shape;
+		this.scale = (shape - 1) / (shape * rate);	//mean gap = shape * scale / (shape - 1) = 1 / rate
+		this.nextArrival = gap();
+	}
+	
+	private double gap() {
+		return scale * Math.pow(1. - rand.nextDouble(), -1. / shape);
+	}
+	
+	@Override
+	public int next() {
+		slot += 1;
+		int arrived = 0;
+		while (nextArrival < slot) {
+			++arrived;
+			nextArrival += gap();
+		}
+		return arrived;
+	}
+	
+	/**
+	 * The next frame's time is already known, so jump straight to its slot.
+	 */
+	@Override
+	public long slotsUntilArrival() {
+		long empty = (long) Math.max(0, Math.floor(nextArrival) - slot);
+		slot += empty;
+		return empty;
+	}
+	
+	@Override
+	public int nextPositive() {
+		return next();
+	}
+}
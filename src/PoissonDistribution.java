@@ -1,28 +1,86 @@
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
+ * Poisson arrivals: every slot, independently, a Poisson number of frames with mean LAMBDA.
+ * The distribution is tabulated once (out to where the tail is negligible) into alias
+ * tables, so each slot costs one uniform number and one lookup.
  * @author Justin A. Middleton
  */
-public class PoissonDistribution {
+public class PoissonDistribution extends TrafficGenerator {
+	private static final double TAIL = 1e-12;	//Probability left out past the end of the table.
+	
 	private final double LAMBDA;
+	private final AliasTable arrivals,			//P(k) for k = 0, 1, ...
+							 positiveArrivals;	//P(k | k > 0) for k = 1, 2, ...
 	
-	public PoissonDistribution(double lambda) {
+	/**
+	 * @param lambda	Mean arrivals per slot.
+	 * @param rand		The owner's random number stream.
+	 */
+	public PoissonDistribution(double lambda, SplittableRandom rand) {
+		super(rand);
 		this.LAMBDA = lambda;
+		
+		double[] pmf = probabilities(lambda);
+		this.arrivals = new AliasTable(pmf, 0);
+		
+		double[] positive = new double[Math.max(1, pmf.length - 1)];
+		System.arraycopy(pmf, 1, positive, 0, pmf.length - 1);
+		if (pmf.length == 1) positive[0] = 1;	//LAMBDA is 0; never used, but keep the table valid.
+		this.positiveArrivals = new AliasTable(positive, 1);
 	}
 	
-	/*Based on Knuth's approach.*/
-	public int next() {
-		Random rand = new Random();
-		double L = Math.exp(-LAMBDA),
-			   p = 1.;
+	/**
+	 * P(0), P(1), ... until everything past the end adds up to less than TAIL.
+	 * The last entry also takes whatever tail is left, so the table sums to one.
+	 */
+	private static double[] probabilities(double lambda) {
+		int max = (int) Math.ceil(lambda + 10 * Math.sqrt(lambda) + 10);
+		double[] pmf = new double[max + 1];
+		double p = Math.exp(-lambda),
+			   sum = 0;
 		int k = 0;
 		
-		
-		do {
+		while (true) {
+			pmf[k] = p;
+			sum += p;
+			if (1 - sum < TAIL || k == max || lambda == 0)
+				break;
 			++k;
-			p *= rand.nextDouble();
-		} while (p > L);
+			p *= lambda / k;
+		}
+		pmf[k] += Math.max(0, 1 - sum);
 		
-		return k - 1;
+		double[] trimmed = new double[k + 1];
+		System.arraycopy(pmf, 0, trimmed, 0, k + 1);
+		return trimmed;
+	}
+	
+	@Override
+	public int next() {
+		return arrivals.sample(rand);
+	}
+	
+	/**
+	 * How many empty slots come before the next slot with at least one arrival.
+	 * A slot is empty with probability e^-LAMBDA, so this is geometric, which works out
+	 * to the floor of an exponential with rate LAMBDA.
+	 */
+	@Override
+	public long slotsUntilArrival() {
+		if (LAMBDA <= 0)
+			return NEVER;
+		double u = 1. - rand.nextDouble();	//in (0, 1]
+		double slots = Math.floor(-Math.log(u) / LAMBDA);
+		return slots >= NEVER ? NEVER : (long) slots;
+	}
+	
+	/**
+	 * Same as next(), but given that at least one frame arrived (the zero-truncated 
+	 * Poisson distribution).
+	 */
+	@Override
+	public int nextPositive() {
+		return positiveArrivals.sample(rand);
 	}
-}
\ No newline at end of file
+}
@@ -2,69 +2,226 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 
+/**
+ * Collects what happens during a run and prints it out. Messages are gated by a
+ * LogLevel: nothing is built for a level that's off, so callers with a message that
+ * takes work to build check isEnabled first. The per-frame messages come from a
+ * printer that's only subscribed to the SimulationEvents while DEBUG is on.
+ * Kept messages go in a ring buffer of fixed size until flush drains them to the
+ * console or a log file; if nobody drains it, the oldest are dropped and counted.
+ */
 public class ProgressMonitor {
-	private static ArrayList<String> messages = new ArrayList<String>();
-	private static int collisionCount = 0;
+	public static final int DEFAULT_CAPACITY = 4096;
 	
-	public static void reset() {
-		messages = new ArrayList<String>();
+	private final Clock clock;
+	private final SimulationEvents events;
+	private final DebugPrinter printer = new DebugPrinter();
+	private LogLevel level = LogLevel.OFF;
+	private String[] messages = new String[DEFAULT_CAPACITY];
+	private int head = 0,			//Oldest message
+				size = 0;
+	private long dropped = 0;		//Overwritten since the last flush
+	private PrintWriter logFile = null;		//null means the console.
+	private int collisionCount = 0;
+	private long routingLookups = 0,	//Routing updates that looked for their tables in a cache,
+				 routingHits = 0;		//and found them.
+	
+	public ProgressMonitor(Clock clock, SimulationEvents events) {
+		this.clock = clock;
+		this.events = events;
+		events.subscribeBusCollision(new SimulationEvents.BusCollision() {
+			@Override
+			public void onBusCollision(Bus bus) {
+				++collisionCount;
+			}
+		});
+	}
+	
+	/**
+	 * Forget any messages, collisions, and routing lookups from the last run. The level and log file stay.
+	 */
+	public void reset() {
+		clearMessages();
 		collisionCount = 0;
+		routingLookups = routingHits = 0;
+	}
+	
+	public LogLevel getLevel() { return level; }
+	
+	public void setLevel(LogLevel level) {
+		this.level = level;
+		if (level.includes(LogLevel.DEBUG))
+			events.subscribeAll(printer);
+		else
+			events.unsubscribeAll(printer);
+	}
+	
+	public boolean isEnabled(LogLevel messageLevel) {
+		return level.includes(messageLevel);
+	}
+	
+	/**
+	 * Keep at most this many messages between flushes. Drops anything not yet flushed.
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("ProgressMonitor: capacity must be positive.");
+		messages = new String[capacity];
+		clearMessages();
 	}
 	
 	/**
-	 * Record a message to write out to the console.
+	 * Drain messages to the end of this file instead of the console.
+	 * @return	false if the file can't be opened, in which case the console is kept.
+	 */
+	public boolean setLogFile(String file) {
+		PrintWriter writer = getWriter(file);
+		if (writer == null)
+			return false;
+		closeLogFile();
+		logFile = writer;
+		return true;
+	}
+	
+	/**
+	 * Record a message to write out, if its level is on.
 	 * @param s	The message to write, eventually.
 	 */
-	public static void write(String s) {
-		messages.add(s);
+	public void write(LogLevel messageLevel, String s) {
+		if (!level.includes(messageLevel))
+			return;
+		int tail = head + size;
+		if (tail >= messages.length) tail -= messages.length;
+		messages[tail] = s;
+		if (size < messages.length)
+			++size;
+		else {
+			if (++head == messages.length) head = 0;
+			++dropped;
+		}
 	}
 	
 	/**
 	 * Print out all stored messages.
 	 */
-	public static void flush() {
-		String fullMessage = "";
-		for (int i = 0; i < messages.size(); ++i) {
-			String message = messages.get(i);
-			fullMessage += "\t" + message;
-			if (i < messages.size() - 1)	
-				fullMessage += "\n";
-		}
+	public void flush() {
+		if (size == 0 && dropped == 0)
+			return;
 		
-		messages = new ArrayList<String>();
+		StringBuilder fullMessage = new StringBuilder();
+		if (dropped > 0)
+			fullMessage.append("\t(").append(dropped).append(" older messages dropped)\n");
+		for (int i = 0; i < size; ++i) {
+			int index = head + i;
+			if (index >= messages.length) index -= messages.length;
+			fullMessage.append('\t').append(messages[index]);
+			if (i < size - 1)	
+				fullMessage.append('\n');
+		}
+		clearMessages();
 		
-		if (fullMessage.compareTo("") != 0) {
-			Clock.printTime();					//print time into console
+		if (logFile != null) {
+			logFile.printf("Time: %.6f\n", (double) clock.time() / 1000000);
+			logFile.println(fullMessage);
+		} else {
+			clock.printTime();					//print time into console
 			System.out.println(fullMessage);
 		}
 	}
 	
-	public static void recordTransmissionStart(Frame frame, Bus path) {
-		write(frame.getPrevHop().getName() + " starts transmitting " + frame.getName() + " on " + path.getName()
-			   + " to " + frame.getDestination().getName() + " by way of " + frame.getNextHop().getName());
+	/**
+	 * Flush, and close the log file if there is one.
+	 */
+	public void close() {
+		flush();
+		closeLogFile();
 	}
 	
-	public static void recordTransmissionFinish(Frame frame, Bus path) {
-		write(frame.getPrevHop().getName() + " finished transmitting " + frame.getName() + " onto " + path.getName());
+	/**
+	 * Writes the per-frame messages, and at TRACE the routing tables.
+	 */
+	private class DebugPrinter implements SimulationEvents.TransmissionStarted, SimulationEvents.TransmissionFinished,
+			SimulationEvents.Delivered, SimulationEvents.Collision, SimulationEvents.RoutingUpdated {
+		@Override
+		public void onTransmissionStarted(Frame frame, Bus path) {
+			write(LogLevel.DEBUG, frame.getPrevHop().getName() + " starts transmitting " + frame.getName() + " on " + path.getName()
+				   + " to " + frame.getDestination().getName() + " by way of " + frame.getNextHop().getName());
+		}
+		
+		@Override
+		public void onTransmissionFinished(Frame frame, Bus path) {
+			write(LogLevel.DEBUG, frame.getPrevHop().getName() + " finished transmitting " + frame.getName() + " onto " + path.getName());
+		}
+		
+		@Override
+		public void onDelivered(Frame frame, Bus path) {
+			write(LogLevel.DEBUG, frame.getName() + " successfully propogated from " + frame.getPrevHop().getName()
+					 + " to " + frame.getNextHop().getName());
+		}
+		
+		@Override
+		public void onCollision(NetworkElementInterface element, Frame frame, int backoff) {
+			write(LogLevel.DEBUG, "\t" + element.getName() + " detects collision for " + frame.getName() + ", will wait " + backoff + " slots.");
+		}
+		
+		@Override
+		public void onRoutingUpdated(Router router) {
+			if (!isEnabled(LogLevel.TRACE))
+				return;
+			StringBuilder table = new StringBuilder();
+			for (Router.RoutingTableRow row : router.getRoutingTable())
+				table.append(row).append("\n");
+			write(LogLevel.TRACE, table.toString());
+		}
 	}
 	
-	public static void recordDelivery(Frame frame) {
-		write(frame.getName() + " successfully propogated from " + frame.getPrevHop().getName()
-				 + " to " + frame.getNextHop().getName());
+	public void recordLinkCost(Link link, int cost) {
+		if (!level.includes(LogLevel.INFO)) return;
+		write(LogLevel.INFO, "Link " + link.getName() + " cost = " + cost);
 	}
-
-	public static void recordCollision(NetworkElementInterface src, Frame frame, int backoff) {
-		write("\t" + src.getName() + " detects collision for " + frame.getName() + ", will wait " + backoff + " slots.");
+	
+	public int getCollisions() {
+		return collisionCount;
 	}
 	
-	public static void addCollision() {
-		++collisionCount;
+	/**
+	 * Count a routing update that looked in the RoutingTableCache, and whether it found its tables.
+	 */
+	public void recordRoutingLookup(boolean hit) {
+		++routingLookups;
+		if (hit)
+			++routingHits;
+		if (level.includes(LogLevel.DEBUG))
+			write(LogLevel.DEBUG, "Routing tables " + (hit ? "found in" : "not in") + " the cache (" + routingHits + " of " + routingLookups + " found).");
 	}
-
-	public static int getCollisions() {
-		return collisionCount;
+	
+	public long getRoutingLookups() { return routingLookups; }
+	public long getRoutingHits() { return routingHits; }
+	
+	/**
+	 * @return	The share of routing lookups that found their tables, from 0 to 1, or 0 if there were none.
+	 */
+	public double getRoutingHitRate() {
+		return routingLookups == 0 ? 0 : (double) routingHits / routingLookups;
+	}
+	
+	private void clearMessages() {
+		for (int i = 0; i < size; ++i) {
+			int index = head + i;
+			if (index >= messages.length) index -= messages.length;
+			messages[index] = null;
+		}
+		head = 0;
+		size = 0;
+		dropped = 0;
+	}
+	
+	private void closeLogFile() {
+		if (logFile != null) {
+			logFile.close();
+			logFile = null;
+		}
 	}
 	
 	public static PrintWriter getWriter(String file) {		
@@ -75,4 +232,4 @@ public class ProgressMonitor {
 			return null;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,10 +1,18 @@
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class RandomBackoff {
 	private static final int MAX_BACKOFF = 8;
+	private final SplittableRandom rand;
+	
+	/**
+	 * @param rand	The owner's random number stream.
+	 */
+	public RandomBackoff(SplittableRandom rand) {
+		this.rand = rand;
+	}
 
 	public int getBackoff(int currentCollisions) {
 		int max_back = currentCollisions > 3 ? MAX_BACKOFF : (int) Math.pow(2, currentCollisions);
-		return new Random().nextInt(max_back) + 1;
+		return rand.nextInt(max_back) + 1;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+import java.util.SplittableRandom;
+
+/**
+ * Every random number one simulation draws comes from here. Each element gets its own
+ * SplittableRandom stream, seeded from the master seed and the element's name, so
+ * nothing allocates a generator per draw, no two threads ever share one, and the same
+ * master seed replays the same run bit for bit (adding an element doesn't disturb
+ * the other elements' streams).
+ * @author Justin
+ *
+ */
+public class RandomService {
+	private final long masterSeed;
+	
+	public RandomService(long masterSeed) {
+		this.masterSeed = masterSeed;
+	}
+	
+	public long getMasterSeed() {
+		return masterSeed;
+	}
+	
+	/**
+	 * @param name	Name of the element (or anything else) that wants its own stream.
+	 * @return		A new stream, always the same one for the same master seed and name.
+	 */
+	public SplittableRandom streamFor(String name) {
+		return new SplittableRandom(mix(masterSeed + hash(name)));
+	}
+	
+	/**
+	 * Every character mixed into 64 bits. String.hashCode has only 32 and collides on
+	 * names as short as "Aa" and "BB", which would give two elements the same stream.
+	 */
+	private static long hash(String name) {
+		long h = name.length();
+		for (int i = 0; i < name.length(); ++i)
+			h = mix(h + name.charAt(i));
+		return mix(h);
+	}
+	
+	/**
+	 * The 64-bit finalizer from MurmurHash3, so nearby seeds and names give unrelated streams.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
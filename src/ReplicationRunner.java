@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independently seeded copies of the simulation on a fork-join pool and merges
+ * their end-of-run numbers into means with 95% confidence intervals. Replications are
+ * run a pool's worth at a time, and the runner stops once every statistic's interval
+ * is narrow enough (or it runs out of replications). Narrow enough is a fraction of the
+ * mean, or an absolute half width, whichever is wider, so a statistic whose mean is
+ * near 0 (a quiet router's collisions, say) can't hold up the rest forever.
+ * @author Justin
+ *
+ */
+public class ReplicationRunner {
+	public static final double DEFAULT_ABSOLUTE_HALF_WIDTH = 1;		//One frame or collision, for the counts.
+	
+	private final long seconds,
+					   masterSeed;
+	private final int minReplications,
+					  maxReplications;
+	private final double relativeHalfWidth,		//stop when every half width is at most this fraction of its mean,
+						 absoluteHalfWidth;		//or at most this, whichever is wider
+	private final ForkJoinPool pool;
+	
+	private final LinkedHashMap<String, RunningStatistic> results = new LinkedHashMap<String, RunningStatistic>();
+	private int replications = 0;
+	
+	/**
+	 * @param seconds				Duration of each replication.
+	 * @param masterSeed			Every replication's seed is drawn from this, in order.
+	 * @param minReplications		Always run at least this many (at least 2, for an interval).
+	 * @param maxReplications		Never run more than this many.
+	 * @param relativeHalfWidth		Target half width of each interval, as a fraction of its mean.
+	 * @param pool					Where to run them; use ForkJoinPool.commonPool() for every core.
+	 */
+	public ReplicationRunner(long seconds, long masterSeed, int minReplications, int maxReplications,
+							 double relativeHalfWidth, ForkJoinPool pool) {
+		this(seconds, masterSeed, minReplications, maxReplications, relativeHalfWidth, DEFAULT_ABSOLUTE_HALF_WIDTH, pool);
+	}
+	
+	/**
+	 * @param absoluteHalfWidth		An interval at most this wide either side of its mean is narrow
+	 * 								enough, whatever the mean; 0 for only the relative test.
+	 */
+	public ReplicationRunner(long seconds, long masterSeed, int minReplications, int maxReplications,
+							 double relativeHalfWidth, double absoluteHalfWidth, ForkJoinPool pool) {
+		if (absoluteHalfWidth < 0)
+			throw new IllegalArgumentException("ReplicationRunner: absolute half width can't be negative.");
+		this.seconds = seconds;
+		this.masterSeed = masterSeed;
+		this.minReplications = Math.max(2, minReplications);
+		this.maxReplications = Math.max(this.minReplications, maxReplications);
+		this.relativeHalfWidth = relativeHalfWidth;
+		this.absoluteHalfWidth = absoluteHalfWidth;
+		this.pool = pool;
+	}
+	
+	/**
+	 * Run replications until the intervals are narrow enough.
+	 * @return	Every statistic by name, merged over all replications run.
+	 */
+	public Map<String, RunningStatistic> run() throws InterruptedException {
+		SplittableRandom seeds = new SplittableRandom(masterSeed);
+		
+		while (replications < maxReplications && (replications < minReplications || !isPreciseEnough())) {
+			int batch = Math.min(Math.max(pool.getParallelism(), minReplications - replications), 
+								 maxReplications - replications);
+			
+			ArrayList<Callable<SimulationStatistics>> tasks = new ArrayList<Callable<SimulationStatistics>>();
+			for (int i = 0; i < batch; ++i) {
+				final long seed = seeds.nextLong();
+				tasks.add(new Callable<SimulationStatistics>() {
+					@Override
+					public SimulationStatistics call() {
+						return SimulationDriver.replicate(new SimulationContext("", seed), seconds);
+					}
+				});
+			}
+			
+			for (Future<SimulationStatistics> future : pool.invokeAll(tasks)) 
+				merge(get(future));
+			replications += batch;
+		}
+		
+		return results;
+	}
+	
+	public int getReplications() {
+		return replications;
+	}
+	
+	private void merge(SimulationStatistics stats) {
+		for (Map.Entry<String, Double> entry : stats.getValues().entrySet()) {
+			RunningStatistic stat = results.get(entry.getKey());
+			if (stat == null) {
+				stat = new RunningStatistic();
+				results.put(entry.getKey(), stat);
+			}
+			stat.add(entry.getValue());
+		}
+	}
+	
+	private boolean isPreciseEnough() {
+		for (RunningStatistic stat : results.values()) 
+			if (stat.getHalfWidth() > Math.max(relativeHalfWidth * Math.abs(stat.getMean()), absoluteHalfWidth))
+				return false;
+		return true;
+	}
+	
+	private static SimulationStatistics get(Future<SimulationStatistics> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("ReplicationRunner: a replication failed.", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("ReplicationRunner: interrupted.", e);
+		}
+	}
+	
+	/**
+	 * args: seconds per replication, master seed, min replications, max replications, 
+	 * 		 relative half width, absolute half width. Any left off take the defaults below.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 30,
+			 seed = args.length > 1 ? Long.parseLong(args[1]) : 570;
+		int min = args.length > 2 ? Integer.parseInt(args[2]) : 5,
+			max = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+		double width = args.length > 4 ? Double.parseDouble(args[4]) : .01,
+			   floor = args.length > 5 ? Double.parseDouble(args[5]) : DEFAULT_ABSOLUTE_HALF_WIDTH;
+		
+		ReplicationRunner runner = new ReplicationRunner(seconds, seed, min, max, width, floor, ForkJoinPool.commonPool());
+		Map<String, RunningStatistic> results = runner.run();
+		
+		System.out.println(runner.getReplications() + " replications of " + seconds + " seconds (mean +/- 95% half width):");
+		for (Map.Entry<String, RunningStatistic> entry : results.entrySet()) 
+			System.out.println("\t" + entry.getKey() + ": " + entry.getValue());
+	}
+}
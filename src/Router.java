@@ -1,53 +1,71 @@
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 public class Router implements NetworkElementInterface {
 	private String name;
+	private final int elementID;
+	private final Clock clock;
+	private final SimulationEvents events;
 	private RoutingAlgorithm routingAlgorithm;
 	private final CSMACD csmacd 				= new CSMACD();					//How do nodes know if it's okay to transmit?	
-	private final RandomBackoff random 			= new RandomBackoff();			//How does the node choose how long to wait?	
-	private RoutingTableRow routingTable;
+	private final RandomBackoff random;											//How does the node choose how long to wait?	
+	private RoutingGraph routingGraph = null;		//What the edges in the table are numbered in.
+	private int routingIndex = -1;					//This router's number in the routing graph.
+	private int[] routeEdge = new int[0],			//For each router, by routing index, the edge to send its frames along, or -1.
+				  routeCost = new int[0];			//And what it costs to get them there.
 	
-	private HashSet<Bus> connections = new HashSet<Bus>();
+	private HashSet<Bus> connections = new LinkedHashSet<Bus>();	//Linked, so iteration order (and the run) is reproducible.
+	private Bus bus = null;												//The first of the connections that isn't a link.
+	private ArrayList<Link> links = new ArrayList<Link>();				//The links among the connections, in the same order.
 	private ArrayDeque<Frame> fromNodeBuffer = new ArrayDeque<Frame>(),
 			             fromRouterBuffer = new ArrayDeque<Frame>();
 	
 	private Frame busFrame = null,		//will be null when nothing is being transmitted.
 		          linkFrame = null;
+	private Link linkInUse = null;		//The link linkFrame is going out on.
 	
-	private long finishBusTX = -1l,
-			     busCollisionCheck = -1l,
-	             finishLinkTX = -1l;
+	private long finishBusTX = Clock.NO_EVENT,		//Handles on pending events; the bus ones are cancelled on collision.
+			     busCollisionCheck = Clock.NO_EVENT,
+	             finishLinkTX = Clock.NO_EVENT,
+	             slotWakeup = Clock.NO_EVENT;		//Next SLOT event, when skipping idle slots.
 	
 	private String linkStatus = "", busStatus = "";
 	public String getStatus() { return linkStatus + "/" + busStatus; }
 			
-	public Router(String name, RoutingAlgorithm ra) {
+	public Router(String name, RoutingAlgorithm ra, SimulationContext context) {
 		this.name = name;
+		this.elementID = context.getRegistry().intern(name);
+		this.clock = context.getClock();
+		this.events = context.getEvents();
+		this.random = new RandomBackoff(context.getRandom().streamFor(name));
 		this.routingAlgorithm = ra;
-		this.routingTable = new RoutingTableRow("all", null, null);
 	}
 	
 	public void addConnection(Bus b) {  }
 	
 	/**
-	 * Update the table every 2 milliseconds.
-	 * Because of the topology, every node is going to take the same link
-	 * to the other side, so we have only one row for everything.
+	 * Update the table every 2 milliseconds: the way to every other router.
 	 * 
-	 * We also work with the assumption that each link has only two routers.
+	 * We work with the assumption that each link has only two routers. RoutingUpdated is
+	 * published every time, whether the table was worked out or found in the cache.
 	 * @param busses 
 	 * @param routers 
 	 */
 	public void updateTable(ArrayList<Router> routers, ArrayList<Bus> busses) {
 		routingAlgorithm.updateTable(this, routers, busses);
-		ProgressMonitor.write(routingTable.toString() + "\n");
+		events.routingUpdated(this);
 	}
 
 	@Override
 	public void addBus(Bus b) {
-		connections.add(b);
+		if (!connections.add(b))
+			return;
+		if (b instanceof Link)
+			links.add((Link) b);
+		else if (bus == null)
+			bus = b;
 	}
 
 	@Override
@@ -68,19 +86,21 @@ public class Router implements NetworkElementInterface {
 		//Send on links
 		if (!fromNodeBuffer.isEmpty() && linkFrame == null) {
 			linkFrame = fromNodeBuffer.remove();
-			linkFrame.setNextHop(routingTable.nextHop);
-			finishLinkTX = Clock.addStep(LINK_TRANS_TIME);
+			int edge = routeTo(linkFrame.getDestination());
+			linkInUse = routingGraph.getEdgeLink(edge);
+			linkFrame.setNextHop(routingGraph.getRouter(routingGraph.getEdgeTo(edge)));
+			finishLinkTX = clock.addStep(LINK_TRANS_TIME, EventType.TRANSMISSION_FINISH, this);
 			
 			if (!linkFrame.isAlreadyInitialized())
 				linkFrame.startTx();
 			
-			routingTable.linkToTake.claim();
-			ProgressMonitor.recordTransmissionStart(linkFrame, routingTable.linkToTake);
+			linkInUse.claim();
+			events.transmissionStarted(linkFrame, linkInUse);
 			linkStatus = "tx";
 		}
 		
 		//Send on bus
-		if (Clock.isSlotTime()) {
+		if (clock.isSlotTime()) {
 			currentBackoff = Math.max(currentBackoff-1, 0);
 			if (!fromRouterBuffer.isEmpty() && busFrame == null && currentBackoff == 0) {
 				Bus busToUse = getBus();
@@ -94,31 +114,85 @@ public class Router implements NetworkElementInterface {
 					if (!busFrame.isAlreadyInitialized())
 						busFrame.startTx();
 					
-					finishBusTX = Clock.addStep(BUS_TRANS_TIME);
-					busCollisionCheck = Clock.addStep(busToUse.getPropTime(busFrame));	
+					finishBusTX = clock.addStep(BUS_TRANS_TIME, EventType.TRANSMISSION_FINISH, this);
+					busCollisionCheck = clock.addStep(busToUse.getPropTime(busFrame), EventType.COLLISION_CHECK, this);	
 					
 					busToUse.claim();
-					ProgressMonitor.recordTransmissionStart(busFrame, busToUse);
+					events.transmissionStarted(busFrame, busToUse);
 					busStatus = "tx";
 				}
 			}
 		}
 	}
 
+	/**
+	 * The edge to send a frame for dest along: toward whichever router on dest's busses
+	 * is cheapest to get to. Nodes are on a bus or two, each with a router or two.
+	 * @throws UnsupportedOperationException	if none of them can be reached.
+	 */
+	private int routeTo(Node dest) throws UnsupportedOperationException {
+		int best = -1;
+		for (int i = 0; i < dest.getBusCount(); ++i) {
+			Bus bus = dest.getBus(i);
+			for (int j = 0; j < bus.getRouterCount(); ++j) {
+				int exit = bus.getRouter(j).getRoutingIndex();
+				if (exit >= 0 && exit < routeEdge.length && routeEdge[exit] >= 0
+						&& (best < 0 || routeCost[exit] < routeCost[best]))
+					best = exit;
+			}
+		}
+		
+		if (best < 0)
+			throw new UnsupportedOperationException("sendFrames: No route from " + name + " to " + dest.getName());
+		return routeEdge[best];
+	}
+	
+	/**
+	 * Frames for a node on this router's bus go out on the bus; the rest go out on a link.
+	 */
+	private void enqueue(Frame f) {
+		if (f.getDestination().isOn(getBus()))
+			fromRouterBuffer.add(f);
+		else
+			fromNodeBuffer.add(f);
+	}
+	
+	/**
+	 * Does this router need to be looked at next slot? Anything buffered, or a backoff to count down.
+	 */
+	private boolean hasSlotWork() {
+		return !fromNodeBuffer.isEmpty() || !fromRouterBuffer.isEmpty() || currentBackoff > 0;
+	}
+
 	/**
 	 * Since each router is connected to only one bus, then just return the first 
-	 * non-link it finds in the connections list.
+	 * non-link in the connections list, as addBus found it.
 	 */
 	private Bus getBus() {
-		for (Bus bus : connections) 
-			if (!(bus instanceof Link)) 
-				return bus;
-		return null;
+		return bus;
+	}
+
+	/**
+	 * Link and bus transmissions share the TRANSMISSION_FINISH event; finishTransmission
+	 * already checks which of the two is due, and does nothing for the other.
+	 */
+	@Override
+	public void handleEvent(Event event) {
+		switch (event.getType()) {
+		case TRANSMISSION_FINISH:	finishTransmission(); break;
+		case COLLISION_CHECK:		checkCollision(); break;
+		case SLOT:
+			sendFrameIfReady();
+			if (hasSlotWork())
+				slotWakeup = clock.addSlotStep(slotWakeup, this, false);
+			break;
+		default:					break;
+		}
 	}
 
 	@Override
 	public void checkCollision() {
-		if (Clock.equalsTime(busCollisionCheck)) {
+		if (clock.isDue(busCollisionCheck)) {
 			if (getBus().hasCollision()) {
 				++currentCollisions;
 				++collisionsAtRouter ;
@@ -127,8 +201,9 @@ public class Router implements NetworkElementInterface {
 				currentBackoff = this.random.getBackoff(currentCollisions);
 				getBus().release();
 				
-				ProgressMonitor.recordCollision(this, busFrame, currentBackoff);
+				events.collision(this, busFrame, currentBackoff);
 				resetTimesForCollision();
+				slotWakeup = clock.addSlotStep(slotWakeup, this, true);
 				busStatus = "col";
 			} 
 		}
@@ -137,32 +212,35 @@ public class Router implements NetworkElementInterface {
 	private void resetTimesForCollision() {
 		fromRouterBuffer.addFirst(busFrame);
 		busFrame = null;
-	    busCollisionCheck = -1l;
-	    finishBusTX = -1l;
+	    clock.cancel(busCollisionCheck);
+	    clock.cancel(finishBusTX);
+	    busCollisionCheck = Clock.NO_EVENT;
+	    finishBusTX = Clock.NO_EVENT;
 	}
 
 	private int sentByLink = 0, sentByBus = 0;
 	@Override
 	public void finishTransmission() {
-		if (Clock.equalsTime(finishLinkTX)) {
-			routingTable.linkToTake.acceptFrame(linkFrame);
-			ProgressMonitor.recordTransmissionFinish(linkFrame, routingTable.linkToTake);
+		if (clock.isDue(finishLinkTX)) {
+			linkInUse.acceptFrame(linkFrame);
+			events.transmissionFinished(linkFrame, linkInUse);
 			linkFrame.finishTx();
 			
 			linkFrame = null;
-			finishLinkTX = -1l;
+			linkInUse = null;
+			finishLinkTX = Clock.NO_EVENT;
 			linkStatus = "";
 			++sentByLink;
 		}
 		
-		if (Clock.equalsTime(finishBusTX)) {
+		if (clock.isDue(finishBusTX)) {
 			getBus().acceptFrame(busFrame);
-			ProgressMonitor.recordTransmissionFinish(busFrame, getBus());
+			events.transmissionFinished(busFrame, getBus());
 			busFrame.finishTx();
 			
 			busFrame = null;
-			busCollisionCheck = -1l;
-			finishBusTX = -1l;
+			busCollisionCheck = Clock.NO_EVENT;
+			finishBusTX = Clock.NO_EVENT;
 			busStatus = "";
 			++sentByBus;
 		}
@@ -172,7 +250,8 @@ public class Router implements NetworkElementInterface {
 	@Override
 	public void acceptFrameFromNode(Frame f) {
 		++traffic;
-		fromNodeBuffer.add(f);
+		enqueue(f);
+		slotWakeup = clock.addSlotStep(slotWakeup, this, true);
 		
 		//Record times
 		f.deliverAndACK();
@@ -183,7 +262,8 @@ public class Router implements NetworkElementInterface {
 	@Override
 	public void acceptFrameFromRouter(Frame f) {
 		++traffic;
-		fromRouterBuffer.add(f);
+		enqueue(f);		//Passed along to another link if it isn't for this bus.
+		slotWakeup = clock.addSlotStep(slotWakeup, this, true);
 		
 		f.deliverAndACK();
 		f.create(this);
@@ -193,47 +273,96 @@ public class Router implements NetworkElementInterface {
 	public String getName() {
 		return name;
 	}
+	
+	@Override
+	public int getElementID() {
+		return elementID;
+	}
 
 	@Override
 	public int getBuffer() {
 		return fromRouterBuffer.size() + fromNodeBuffer.size();
 	}
 	
+	/**
+	 * One row of the table, for printing: how this router gets frames to another.
+	 */
 	public class RoutingTableRow { 
 		public String destinationName;
 		public Router nextHop;
 		public Link linkToTake;
+		public int cost;
 		
-		public RoutingTableRow(String dest, Router next, Link link) {
-			setValues(dest, next, link);
-		}
-		
-		public void setValues(String dest, Router next, Link link) {
+		public RoutingTableRow(String dest, Router next, Link link, int cost) {
 			this.destinationName = dest;
 			this.nextHop = next;
 			this.linkToTake = link;
+			this.cost = cost;
 		}
 		
 		public String toString() {
-			return name + " sends packets along " + linkToTake.getName() + " to " + nextHop.getName();
+			return name + " sends packets for " + destinationName + " along " + linkToTake.getName() 
+					+ " to " + nextHop.getName() + " (cost " + cost + ")";
+		}
+	}
+	
+	/**
+	 * @return	A row for every router this one can reach, by routing index. Made fresh each call.
+	 */
+	public ArrayList<RoutingTableRow> getRoutingTable() {
+		ArrayList<RoutingTableRow> rows = new ArrayList<RoutingTableRow>();
+		for (int i = 0; i < routeEdge.length; ++i) {
+			int edge = routeEdge[i];
+			if (edge >= 0)
+				rows.add(new RoutingTableRow(routingGraph.getRouter(i).getName(), 
+						routingGraph.getRouter(routingGraph.getEdgeTo(edge)), routingGraph.getEdgeLink(edge), routeCost[i]));
 		}
+		return rows;
 	}
 	
-	public void setRoutingTable(String dest, Router nextHop, Link linkToTake) {
-		this.routingTable.setValues(dest, nextHop, linkToTake);
+	/**
+	 * @return	What it costs to get a frame to dest, or Integer.MAX_VALUE if it can't be done.
+	 */
+	public int getRoutingCost(Router dest) {
+		int index = dest.getRoutingIndex();
+		return index >= 0 && index < routeCost.length ? routeCost[index] : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Take a new table. Both arrays are by routing index, and are kept, not copied: the
+	 * RoutingEngine that owns them updates them in place.
+	 * @param edges		The first edge toward each router, or -1 if there's no way there (or it's this one).
+	 * @param costs		What it costs to get to each router.
+	 */
+	public void setRoutingTable(RoutingGraph graph, int[] edges, int[] costs) {
+		this.routingGraph = graph;
+		this.routeEdge = edges;
+		this.routeCost = costs;
 	}
+	
+	public int getRoutingIndex() { return routingIndex; }
+	
+	/**
+	 * Called by RoutingGraph, which numbers the routers it's built from.
+	 */
+	void setRoutingIndex(int index) { this.routingIndex = index; }
 
 	@Override
 	public void acceptACK(Frame f) {
 		//NOTHING
 	}
 	
-	public HashSet<Bus> getLinks() {
-		HashSet<Bus> links = new HashSet<Bus>(connections);
-		links.remove(getBus());
+	public ArrayList<Link> getLinks() {
 		return links;
 	}
 	
+	public int getCollisions() { return collisionsAtRouter; }
+	public int getFromNodeBuffer() { return fromNodeBuffer.size(); }
+	public int getFromRouterBuffer() { return fromRouterBuffer.size(); }
+	public int getTraffic() { return traffic; }
+	public int getSentByLink() { return sentByLink; }
+	public int getSentByBus() { return sentByBus; }
+	
 	public String toString() {
 		String results = name + ":"
 						+ "\n\tTotal Collisions: " + collisionsAtRouter
@@ -0,0 +1,430 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Shortest paths between every pair of routers in one network, worked out once per routing
+ * update and shared by all of its routers: each router's table is its own row here, which
+ * it keeps a reference to, not a copy.
+ *
+ * The first update runs Dijkstra's algorithm from every router. After that, only the links
+ * whose costs moved (SimulationContext.linkCostChanged) are looked at, and a router's row is
+ * redone only if one of them could change it: a link on its shortest-path tree got dearer,
+ * or some link got cheap enough to be as good as the tree. Even then only the routers whose
+ * distance could change go back through the heap (dynamic SPF). When more than one link in
+ * DYNAMIC_SHARE moved, which is every update in the driver, where every link draws a new cost,
+ * the cut-off subtrees cover most of the network and plain Dijkstra from every router is faster.
+ *
+ * Where two ways cost the same, the one Dijkstra's algorithm would have found is kept, so the
+ * tables are always exactly what running it from scratch would give: the edge into each router
+ * is the cheapest one from the router nearest the source, lowest numbered on ties, and then
+ * the first of that router's edges. That's what ties come to with every cost at least 1, which
+ * they are; anything less and every row is redone from scratch.
+ *
+ * In a network of only a few links, every set of tables worked out is also kept in a
+ * RoutingTableCache, by the costs it was worked out for, and when the same costs come round
+ * again the tables are copied from there instead. Link costs are drawn from only a few values,
+ * so there they do. In a bigger network they never would, so unless the costs pass
+ * RoutingTableCache.canHold when the engine is built, its cache holds nothing and is never
+ * looked at. Either way, every router is handed its row after every update that changed any.
+ * @author Justin
+ *
+ */
+public class RoutingEngine {
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+	private static final int DYNAMIC_SHARE = 16;	//Dynamic SPF only pays when at most one link in this many moved.
+	
+	private final SimulationContext context;
+	private final RoutingGraph graph;
+	private RoutingTableCache cache;
+	private final int size;
+	private final int[][] distance,		//For each source, by router: what it costs to get there,
+						  viaEdge,		//the edge into it on the way there,
+						  firstHop;		//and the source's first edge on the way there, or -1.
+	private boolean computed = false,	//Has every row been worked out at least once?
+					positive = false,	//Does every link cost at least 1, so ties come out the same?
+					incremental = true;	//Or just redo every row every update?
+	private long fullUpdates = 0,
+				 rowsRedone = 0;
+	
+	//Scratch space.
+	private final IndexedHeap heap;
+	private final int[] oldDistance,		//Before this update, for the routers in touched.
+						touched,			//Routers whose distance was written this update.
+						marks,				//Per router: what this update knows about it (see below).
+						stack;
+	private int touchedCount = 0;
+	private int[] changedEdges = new int[16],	//Links that moved, one edge each,
+				  oldCost = new int[16];		//and what each cost before, both ways.
+	private int changedCount = 0;
+	private static final int UNKNOWN = 0, CUT_OFF = 1, STILL_SET = 2,		//Marks while finding the cut-off subtrees,
+							 TOUCHED = 1 << 2, RECHECK = 1 << 3;		//and for distances written and parents to recheck.
+	
+	public RoutingEngine(SimulationContext context, ArrayList<Router> routers) {
+		this.context = context;
+		this.graph = new RoutingGraph(routers);
+		this.size = graph.size();
+		this.distance = new int[size][size];
+		this.viaEdge = new int[size][size];
+		this.firstHop = new int[size][size];
+		this.heap = new IndexedHeap(size);
+		this.oldDistance = new int[size];
+		this.touched = new int[size];
+		this.marks = new int[size];
+		this.stack = new int[size];
+		graph.refreshCosts();		//so the cache is sized for the costs the links have now
+		this.cache = RoutingTableCache.forGraph(graph);
+	}
+	
+	/**
+	 * Was this engine built for this list of routers, as it is now?
+	 */
+	public boolean isFor(ArrayList<Router> routers) {
+		return graph.isFor(routers);
+	}
+	
+	/**
+	 * Redo every row every update, instead of only what the cost changes touch. For comparison.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * Keep at most this many sets of tables, whatever size the network is; 0 keeps none.
+	 * Drops any already kept.
+	 */
+	public void setCacheCapacity(int capacity) {
+		cache = new RoutingTableCache(graph, capacity);
+	}
+	
+	/**
+	 * Bring every row up to date with the links' costs, and hand each router its row. Cheap
+	 * when nothing moved, so every router can call it and only the first does any work.
+	 */
+	public void update() {
+		ArrayList<Link> changed = context.getChangedLinks();
+		if (computed && changed.isEmpty())
+			return;
+		
+		changedCount = 0;
+		boolean stillPositive = positive;
+		for (int i = 0; i < changed.size(); ++i) {
+			int edge = graph.getEdge(changed.get(i));
+			if (edge < 0)
+				continue;
+			int before = graph.getEdgeCost(edge);
+			graph.refreshCost(edge);
+			if (graph.getEdgeCost(edge) == before)		//Moved back to where it was.
+				continue;
+			if (changedCount == changedEdges.length) {
+				changedEdges = Arrays.copyOf(changedEdges, 2 * changedCount);
+				oldCost = Arrays.copyOf(oldCost, 2 * changedCount);
+			}
+			changedEdges[changedCount] = edge;
+			oldCost[changedCount++] = before;
+			stillPositive &= graph.getEdgeCost(edge) >= 1;
+		}
+		context.clearChangedLinks();
+		
+		boolean full = !computed || !incremental || !stillPositive || changedCount * DYNAMIC_SHARE > graph.getLinkCount();
+		if (full)
+			graph.refreshCosts();
+		boolean cached = cache.canHold(graph);
+		if (cached) {
+			boolean hit = cache.get(graph, distance, viaEdge, firstHop);
+			context.getMonitor().recordRoutingLookup(hit);
+			if (hit) {
+				positive = graph.getLowestCost() >= 1;
+				computed = true;
+				handOut();
+				return;
+			}
+		}
+		
+		if (full)
+			recomputeAll();
+		else
+			for (int source = 0; source < size; ++source)
+				if (needsUpdate(source)) {
+					updateRow(source);
+					++rowsRedone;
+				}
+		if (cached)
+			cache.put(distance, viaEdge, firstHop);
+		handOut();
+	}
+	
+	/**
+	 * Give every router its row, however it was worked out: from scratch, a row at a time,
+	 * or copied from the cache.
+	 */
+	private void handOut() {
+		for (int source = 0; source < size; ++source)
+			graph.getRouter(source).setRoutingTable(graph, firstHop[source], distance[source]);
+	}
+	
+	private void recomputeAll() {
+		positive = graph.getLowestCost() >= 1;
+		for (int source = 0; source < size; ++source)
+			dijkstra(source);
+		computed = true;
+		++fullUpdates;
+		rowsRedone += size;
+	}
+	
+	/**
+	 * Plain Dijkstra from the source, filling its row.
+	 */
+	private void dijkstra(int source) {
+		int[] distance = this.distance[source],
+			  viaEdge = this.viaEdge[source],
+			  firstHop = this.firstHop[source];
+		Arrays.fill(distance, UNREACHABLE);
+		Arrays.fill(viaEdge, -1);
+		Arrays.fill(firstHop, -1);
+		distance[source] = 0;
+		heap.reset(distance);
+		heap.update(source);
+		
+		while (!heap.isEmpty()) {
+			int closest = heap.poll();		//Anything never reached is never in the heap.
+			for (int edge = graph.firstEdge(closest); edge < graph.firstEdge(closest + 1); ++edge) {
+				int neighbor = graph.getEdgeTo(edge),
+					cost = distance[closest] + graph.getEdgeCost(edge);
+				if (cost < distance[neighbor]) {
+					distance[neighbor] = cost;
+					viaEdge[neighbor] = edge;
+					firstHop[neighbor] = closest == source ? edge : firstHop[closest];
+					heap.update(neighbor);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Could any of the changed links change this source's row? Only if one of them is on its
+	 * tree and got dearer, or got cheap enough to be at least as good as the tree.
+	 */
+	private boolean needsUpdate(int source) {
+		int[] distance = this.distance[source],
+			  viaEdge = this.viaEdge[source];
+		for (int i = 0; i < changedCount; ++i) {
+			int edge = changedEdges[i];
+			for (int way = 0; way < 2; ++way, edge = graph.getReverse(edge)) {
+				int from = graph.getEdgeFrom(edge),
+					to = graph.getEdgeTo(edge),
+					cost = graph.getEdgeCost(edge);
+				if (distance[from] == UNREACHABLE)
+					continue;
+				if (cost > oldCost[i] ? viaEdge[to] == edge : distance[from] + cost <= distance[to])
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Dynamic SPF for one source. The routers under a tree edge that got dearer are cut off and
+	 * their distances worked out again from their neighbors that weren't; links that got
+	 * cheaper pull their far ends' distances down. Either way only what's in the heap is
+	 * searched. Then the routers whose best edge in could have changed pick it again, and if
+	 * any did, the first hops follow.
+	 */
+	private void updateRow(int source) {
+		int[] distance = this.distance[source],
+			  viaEdge = this.viaEdge[source],
+			  firstHop = this.firstHop[source];
+		Arrays.fill(marks, UNKNOWN);
+		touchedCount = 0;
+		heap.reset(distance);
+		
+		//Which routers are cut off: those whose way here goes through a tree edge that got dearer.
+		marks[source] = STILL_SET;
+		boolean anyCut = false;
+		for (int i = 0; i < changedCount; ++i) {
+			int edge = changedEdges[i];
+			for (int way = 0; way < 2; ++way, edge = graph.getReverse(edge))
+				if (graph.getEdgeCost(edge) > oldCost[i] && viaEdge[graph.getEdgeTo(edge)] == edge) {
+					marks[graph.getEdgeTo(edge)] = CUT_OFF;
+					anyCut = true;
+				}
+		}
+		if (anyCut) {
+			for (int router = 0; router < size; ++router)
+				if (distance[router] != UNREACHABLE)
+					findCut(router, viaEdge);
+			for (int router = 0; router < size; ++router)
+				if ((marks[router] & 3) == CUT_OFF) {
+					touch(router, distance);
+					distance[router] = UNREACHABLE;
+				}
+			for (int router = 0; router < size; ++router)
+				if ((marks[router] & 3) == CUT_OFF)
+					for (int out = graph.firstEdge(router); out < graph.firstEdge(router + 1); ++out)
+						relax(graph.getReverse(out), distance);		//From each neighbor that wasn't cut off.
+		}
+		
+		//Links that got cheaper.
+		for (int i = 0; i < changedCount; ++i) {
+			int edge = changedEdges[i];
+			for (int way = 0; way < 2; ++way, edge = graph.getReverse(edge))
+				if (graph.getEdgeCost(edge) < oldCost[i])
+					relax(edge, distance);
+		}
+		
+		while (!heap.isEmpty()) {
+			int closest = heap.poll();
+			for (int edge = graph.firstEdge(closest); edge < graph.firstEdge(closest + 1); ++edge)
+				relax(edge, distance);
+		}
+		
+		//Whose best edge in could have changed: every router whose distance moved, and its
+		//neighbors, and the far end of every changed link.
+		for (int i = 0; i < touchedCount; ++i) {
+			int router = touched[i];
+			if (distance[router] == oldDistance[router])
+				continue;
+			marks[router] |= RECHECK;
+			for (int edge = graph.firstEdge(router); edge < graph.firstEdge(router + 1); ++edge)
+				marks[graph.getEdgeTo(edge)] |= RECHECK;
+		}
+		for (int i = 0; i < changedCount; ++i) {
+			int edge = changedEdges[i];
+			marks[graph.getEdgeTo(edge)] |= RECHECK;
+			marks[graph.getEdgeFrom(edge)] |= RECHECK;
+		}
+		
+		boolean anyMoved = false;
+		for (int router = 0; router < size; ++router)
+			if ((marks[router] & RECHECK) != 0 && router != source && distance[router] != UNREACHABLE) {
+				int best = bestEdgeInto(router, distance);
+				if (best != viaEdge[router]) {
+					viaEdge[router] = best;
+					anyMoved = true;
+				}
+			}
+		if (anyMoved)
+			refillFirstHops(source, viaEdge, firstHop);
+	}
+	
+	/**
+	 * Mark router CUT_OFF or STILL_SET by following its tree edges back toward the source
+	 * until one is already known, marking everything on the way the same.
+	 */
+	private void findCut(int router, int[] viaEdge) {
+		int depth = 0;
+		while ((marks[router] & 3) == UNKNOWN) {
+			stack[depth++] = router;
+			router = graph.getEdgeFrom(viaEdge[router]);
+		}
+		int mark = marks[router] & 3;
+		while (depth > 0)
+			marks[stack[--depth]] |= mark;
+	}
+	
+	/**
+	 * Try the edge: if it gives its far end a lower distance, take it and queue the far end.
+	 */
+	private void relax(int edge, int[] distance) {
+		int from = graph.getEdgeFrom(edge),
+			to = graph.getEdgeTo(edge);
+		if (distance[from] == UNREACHABLE)
+			return;
+		int cost = distance[from] + graph.getEdgeCost(edge);
+		if (cost < distance[to]) {
+			touch(to, distance);
+			distance[to] = cost;
+			heap.update(to);
+		}
+	}
+	
+	/**
+	 * Remember a router's distance before this update first writes it.
+	 */
+	private void touch(int router, int[] distance) {
+		if ((marks[router] & TOUCHED) == 0) {
+			marks[router] |= TOUCHED;
+			oldDistance[router] = distance[router];
+			touched[touchedCount++] = router;
+		}
+	}
+	
+	/**
+	 * The edge Dijkstra's algorithm would have come into the router by: of the edges on a
+	 * shortest way there, the one from the nearest router, lowest numbered on ties, and
+	 * then that router's first.
+	 */
+	private int bestEdgeInto(int router, int[] distance) {
+		int best = -1;
+		for (int out = graph.firstEdge(router); out < graph.firstEdge(router + 1); ++out) {
+			int edge = graph.getReverse(out),
+				from = graph.getEdgeFrom(edge);
+			if (distance[from] == UNREACHABLE || distance[from] + graph.getEdgeCost(edge) != distance[router])
+				continue;
+			if (best < 0) {
+				best = edge;
+				continue;
+			}
+			int bestFrom = graph.getEdgeFrom(best);
+			if (distance[from] < distance[bestFrom]
+					|| (distance[from] == distance[bestFrom] && (from < bestFrom || (from == bestFrom && edge < best))))
+				best = edge;
+		}
+		return best;
+	}
+	
+	/**
+	 * Work out every router's first hop again from the tree, following each one back only
+	 * as far as a router already done.
+	 */
+	private void refillFirstHops(int source, int[] viaEdge, int[] firstHop) {
+		Arrays.fill(marks, UNKNOWN);
+		marks[source] = STILL_SET;
+		for (int router = 0; router < size; ++router) {
+			if (marks[router] != UNKNOWN || viaEdge[router] < 0)
+				continue;
+			int depth = 0,
+				at = router;
+			while (marks[at] == UNKNOWN) {
+				stack[depth++] = at;
+				at = graph.getEdgeFrom(viaEdge[at]);
+			}
+			while (depth > 0) {
+				int next = stack[--depth];
+				firstHop[next] = at == source ? viaEdge[next] : firstHop[at];
+				marks[next] = STILL_SET;
+				at = next;
+			}
+		}
+	}
+	
+	public RoutingGraph getGraph() { return graph; }
+	public RoutingTableCache getCache() { return cache; }
+	
+	/**
+	 * @return	How many updates redid every row from scratch.
+	 */
+	public long getFullUpdates() { return fullUpdates; }
+	
+	/**
+	 * @return	How many rows have been redone, counting every row of a full update.
+	 */
+	public long getRowsRedone() { return rowsRedone; }
+	
+	/**
+	 * The source's row, for printing: each router, in order, with its cost, the router
+	 * before it on the way there, and the link from that one.
+	 */
+	public String describe(int source) {
+		StringBuilder out = new StringBuilder("From ").append(graph.getRouter(source).getName()).append(":\n");
+		for (int router = 0; router < size; ++router) {
+			int via = viaEdge[source][router];
+			if (router != source && via < 0)
+				continue;
+			out.append(graph.getRouter(router).getName()).append(";\tCost: ").append(distance[source][router])
+			   .append(";\tNext Hop: ").append(via >= 0 ? graph.getRouter(graph.getEdgeFrom(via)).getName() : "-")
+			   .append(";\tLink Used: ").append(via >= 0 ? graph.getEdgeLink(via).getName() : "-").append("\n");
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The routers and links of one network as a compact, int-indexed graph, so routing
+ * algorithms can search it without a HashMap. Routers are numbered by their place in
+ * the list they were given (Router.getRoutingIndex), every link is an edge each way,
+ * and router i's edges are firstEdge(i) up to firstEdge(i + 1), in the order the router
+ * has its links. Link costs are copied into an int array by refreshCosts, or one link at
+ * a time by refreshCost.
+ *
+ * A network builds its graph once, for its RoutingEngine, and all its routers share it.
+ * @author Justin
+ *
+ */
+public class RoutingGraph {
+	private final ArrayList<Router> routerList;	//What this was built from.
+	private final Router[] routers;
+	private final int[] firstEdge,				//Where each router's edges start; one extra at the end.
+						edgeFrom,
+						edgeTo,
+						edgeReverse,			//The same link, the other way.
+						edgeCost;				//Each edge's link's cost, as of the last refresh.
+	private final Link[] edgeLink;
+	private final HashMap<Link, Integer> linkEdges = new HashMap<Link, Integer>();	//Each link's first edge.
+	
+	public RoutingGraph(ArrayList<Router> routers) {
+		this.routerList = routers;
+		this.routers = routers.toArray(new Router[routers.size()]);
+		int n = this.routers.length,
+			edges = 0;
+		for (int i = 0; i < n; ++i) {
+			this.routers[i].setRoutingIndex(i);
+			edges += this.routers[i].getLinks().size();
+		}
+		
+		firstEdge = new int[n + 1];
+		edgeFrom = new int[edges];
+		edgeTo = new int[edges];
+		edgeReverse = new int[edges];
+		edgeCost = new int[edges];
+		edgeLink = new Link[edges];
+		int e = 0;
+		for (int i = 0; i < n; ++i) {
+			firstEdge[i] = e;
+			ArrayList<Link> links = this.routers[i].getLinks();
+			for (int j = 0; j < links.size(); ++j, ++e) {
+				Link link = links.get(j);
+				Router other = link.getRouter(0) != this.routers[i] ? link.getRouter(0) : link.getRouter(1);
+				edgeFrom[e] = i;
+				edgeTo[e] = other.getRoutingIndex();
+				edgeLink[e] = link;
+				
+				Integer reverse = linkEdges.get(link);
+				if (reverse == null)
+					linkEdges.put(link, e);
+				else {
+					edgeReverse[e] = reverse;
+					edgeReverse[reverse] = e;
+				}
+			}
+		}
+		firstEdge[n] = e;
+	}
+	
+	/**
+	 * Was this graph built from this list, as it is now?
+	 */
+	public boolean isFor(ArrayList<Router> routers) {
+		return routers == routerList && routers.size() == this.routers.length;
+	}
+	
+	/**
+	 * Copy every link's current cost into the graph.
+	 */
+	public void refreshCosts() {
+		for (int e = 0; e < edgeLink.length; ++e)
+			edgeCost[e] = edgeLink[e].getCost();
+	}
+	
+	/**
+	 * Copy the current cost of an edge's link into the graph, both ways.
+	 */
+	public void refreshCost(int edge) {
+		edgeCost[edge] = edgeCost[edgeReverse[edge]] = edgeLink[edge].getCost();
+	}
+	
+	/**
+	 * @return	The lowest cost of any edge, or Integer.MAX_VALUE if there are none.
+	 */
+	public int getLowestCost() {
+		int lowest = Integer.MAX_VALUE;
+		for (int e = 0; e < edgeCost.length; ++e)
+			lowest = Math.min(lowest, edgeCost[e]);
+		return lowest;
+	}
+	
+	/**
+	 * @return	One of the link's edges (getReverse is the other), or -1 if it isn't in this graph.
+	 */
+	public int getEdge(Link link) {
+		Integer edge = linkEdges.get(link);
+		return edge == null ? -1 : edge;
+	}
+	
+	public int size() { return routers.length; }
+	public int getLinkCount() { return edgeLink.length / 2; }
+	public Router getRouter(int index) { return routers[index]; }
+	public int firstEdge(int router) { return firstEdge[router]; }
+	public int getEdgeFrom(int edge) { return edgeFrom[edge]; }
+	public int getEdgeTo(int edge) { return edgeTo[edge]; }
+	public int getReverse(int edge) { return edgeReverse[edge]; }
+	public int getEdgeCost(int edge) { return edgeCost[edge]; }
+	public Link getEdgeLink(int edge) { return edgeLink[edge]; }
+}
@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The routing tables a RoutingEngine has worked out, kept by the link costs they were
+ * worked out for, so when the same costs come round again the tables are copied back
+ * instead of searched for. The costs are packed into as few bits each as the dearest
+ * one needs, so a key is a handful of longs. Holds at most a fixed number of tables;
+ * when it's full the one least recently used goes, and its arrays are reused for the
+ * new one.
+ *
+ * This only helps tiny networks, a handful of links: with more than a few the costs
+ * almost never come round again. canHold says whether it's worth looking at all: only
+ * if there are at most REACH times as many ways to cost the links, from 0 to the dearest
+ * link now, as there's room for tables. forGraph builds one that holds nothing unless
+ * the network it's for passes that test, so on anything bigger it costs nothing.
+ * @author Justin
+ *
+ */
+public class RoutingTableCache {
+	public static final int DEFAULT_BYTES = 8 << 20;		//About how much memory a cache takes, full.
+	private static final int REACH = 16;
+	
+	private final int size,				//Routers
+					  capacity;			//Tables
+	private final double reach;			//The log of how many ways to cost the links are worth looking up.
+	private final LinkedHashMap<CostVector, int[]> tables;		//Least recently used first.
+	private CostVector probe;			//The costs last looked up, reused for every lookup.
+	private boolean probeValid = false;	//Can the last costs looked up be kept at all?
+	private long hits = 0,
+				 lookups = 0;
+	
+	/**
+	 * A cache small enough to fit in about DEFAULT_BYTES.
+	 */
+	public RoutingTableCache(RoutingGraph graph) {
+		this(graph, defaultCapacity(graph));
+	}
+	
+	public RoutingTableCache(RoutingGraph graph, int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("RoutingTableCache: capacity can't be negative.");
+		this.size = graph.size();
+		this.capacity = capacity;
+		this.reach = Math.log((double) REACH * capacity);
+		this.tables = new LinkedHashMap<CostVector, int[]>(16, 0.75f, true);
+		this.probe = capacity == 0 ? null : new CostVector(Math.max(1, (graph.getLinkCount() + 1) / 2));
+	}
+	
+	/**
+	 * A cache of about DEFAULT_BYTES if the graph's costs now are worth looking up, or
+	 * one that holds nothing (and is never looked at) if they aren't.
+	 */
+	public static RoutingTableCache forGraph(RoutingGraph graph) {
+		RoutingTableCache cache = new RoutingTableCache(graph);
+		return cache.canHold(graph) ? cache : new RoutingTableCache(graph, 0);
+	}
+	
+	private static int defaultCapacity(RoutingGraph graph) {
+		long entry = 16 + 12L * graph.size() * graph.size()		//distance, viaEdge, firstHop in one array
+					 + 96 + 8L * ((graph.getLinkCount() + 1) / 2);	//key and map entry
+		return (int) Math.max(1, DEFAULT_BYTES / entry);
+	}
+	
+	/**
+	 * Are the graph's current costs worth looking up? Not if the cache holds nothing, a
+	 * cost is negative, or there are too many ways to cost the links for these to come
+	 * round again.
+	 */
+	public boolean canHold(RoutingGraph graph) {
+		if (capacity == 0)
+			return false;
+		int highest = 0;
+		for (int edge = 0; edge < 2 * graph.getLinkCount(); ++edge) {
+			int cost = graph.getEdgeCost(edge);
+			if (cost < 0)
+				return false;
+			highest = Math.max(highest, cost);
+		}
+		return graph.getLinkCount() * Math.log(highest + 1.0) <= reach;
+	}
+	
+	/**
+	 * Look up the graph's current costs (which canHold) and, if they're here, copy their
+	 * tables into the rows.
+	 * @return	false if they aren't, in which case put can keep them once they're worked out.
+	 */
+	public boolean get(RoutingGraph graph, int[][] distance, int[][] viaEdge, int[][] firstHop) {
+		++lookups;
+		probe.encode(graph);
+		probeValid = true;
+		int[] table = tables.get(probe);
+		if (table == null)
+			return false;
+		int at = 0;
+		for (int source = 0; source < size; ++source, at += 3 * size) {
+			System.arraycopy(table, at, distance[source], 0, size);
+			System.arraycopy(table, at + size, viaEdge[source], 0, size);
+			System.arraycopy(table, at + 2 * size, firstHop[source], 0, size);
+		}
+		++hits;
+		return true;
+	}
+	
+	/**
+	 * Keep these tables for the costs the last get didn't find.
+	 */
+	public void put(int[][] distance, int[][] viaEdge, int[][] firstHop) {
+		if (!probeValid)
+			return;
+		probeValid = false;
+		
+		CostVector key;
+		int[] table;
+		if (tables.size() < capacity) {
+			key = new CostVector(probe.words.length);
+			table = new int[3 * size * size];
+		} else {
+			Iterator<Map.Entry<CostVector, int[]>> eldest = tables.entrySet().iterator();
+			Map.Entry<CostVector, int[]> entry = eldest.next();
+			key = entry.getKey();
+			table = entry.getValue();
+			eldest.remove();
+		}
+		int at = 0;
+		for (int source = 0; source < size; ++source, at += 3 * size) {
+			System.arraycopy(distance[source], 0, table, at, size);
+			System.arraycopy(viaEdge[source], 0, table, at + size, size);
+			System.arraycopy(firstHop[source], 0, table, at + 2 * size, size);
+		}
+		
+		CostVector stored = probe;		//Swap, so the probe never goes in the map.
+		probe = key;
+		tables.put(stored, table);
+	}
+	
+	public int getCapacity() { return capacity; }
+	public int getCount() { return tables.size(); }
+	public long getHits() { return hits; }
+	public long getLookups() { return lookups; }
+	
+	/**
+	 * Every link's cost, in the graph's order, packed into longs.
+	 */
+	private static class CostVector {
+		private final long[] words;		//Enough for every link at 32 bits each.
+		private int used,				//Words in use
+					bits,				//Per cost
+					hash;
+		
+		CostVector(int words) {
+			this.words = new long[words];
+		}
+		
+		/**
+		 * Take the graph's costs, none of them negative.
+		 */
+		void encode(RoutingGraph graph) {
+			int highest = 1;
+			for (int edge = 0; edge < 2 * graph.getLinkCount(); ++edge)
+				highest = Math.max(highest, graph.getEdgeCost(edge));
+			bits = 32 - Integer.numberOfLeadingZeros(highest);
+			
+			Arrays.fill(words, 0);
+			int at = 0;
+			for (int edge = 0; edge < 2 * graph.getLinkCount(); ++edge) {
+				if (graph.getReverse(edge) < edge)
+					continue;		//One edge per link.
+				long cost = graph.getEdgeCost(edge);
+				words[at >>> 6] |= cost << (at & 63);
+				if ((at & 63) + bits > 64)
+					words[(at >>> 6) + 1] |= cost >>> (64 - (at & 63));
+				at += bits;
+			}
+			used = (at + 63) >>> 6;
+			hash = bits;
+			for (int i = 0; i < used; ++i)
+				hash = 31 * hash + (int) (words[i] ^ (words[i] >>> 32));
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof CostVector))
+				return false;
+			CostVector other = (CostVector) o;
+			if (other.hash != hash || other.bits != bits || other.used != used)
+				return false;
+			for (int i = 0; i < used; ++i)
+				if (other.words[i] != words[i])
+					return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Mean and variance of a stream of samples, kept with Welford's method so it never
+ * stores the samples themselves. Two of these can be merged, so replications can be
+ * summarized separately and combined afterwards.
+ */
+public class RunningStatistic {
+	//Two-sided 95% critical values of Student's t for 1 through 30 degrees of freedom.
+	private static final double[] T_95 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+										   2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+										   2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+	private static final double Z_95 = 1.960;
+	
+	private long count = 0;
+	private double mean = 0,
+				   m2 = 0;		//sum of squared differences from the mean
+	
+	public void add(double sample) {
+		++count;
+		double delta = sample - mean;
+		mean += delta / count;
+		m2 += delta * (sample - mean);
+	}
+	
+	/**
+	 * Fold another set of samples into this one (Chan et al.'s parallel formula).
+	 */
+	public void merge(RunningStatistic other) {
+		if (other.count == 0)
+			return;
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		count = total;
+	}
+	
+	public long getCount() { return count; }
+	public double getMean() { return mean; }
+	
+	public double getVariance() {
+		return count > 1 ? m2 / (count - 1) : 0;
+	}
+	
+	/**
+	 * Half the width of the 95% confidence interval for the mean, or infinity with
+	 * fewer than two samples.
+	 */
+	public double getHalfWidth() {
+		if (count < 2)
+			return Double.POSITIVE_INFINITY;
+		long df = count - 1;
+		double t = df <= T_95.length ? T_95[(int) df - 1] : Z_95;
+		return t * Math.sqrt(getVariance() / count);
+	}
+	
+	public String toString() {
+		return String.format("%.2f +/- %.2f", mean, getHalfWidth());
+	}
+}
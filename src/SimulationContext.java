@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Everything one run of the simulation shares: the clock and its event queue, the
+ * progress monitor, the event bus, and the random number streams. Every node, router
+ * and bus is handed one of these instead of reaching for static state, so several
+ * simulations can run side by side in one JVM as long as each has its own context.
+ * @author Justin
+ *
+ */
+public class SimulationContext {
+	private final Clock clock;
+	private final SimulationEvents events = new SimulationEvents();
+	private final ProgressMonitor monitor;
+	private final RandomService random;
+	private final ElementRegistry registry = new ElementRegistry();	//Every element's name, by ID.
+	private final String outputPrefix;		//Put in front of every file this run writes, so runs don't overwrite each other.
+	private boolean writingFrames = true;	//Do nodes write a record for every finished frame?
+	private TraceFormat traceFormat = TraceFormat.CSV;	//And in what format.
+	private TraceWriter traceWriter = null;	//Started the first time a node asks for it.
+	private long metricsInterval = 0;		//Slots between rows of metrics.csv, or 0 for none.
+	private boolean trackingLatency = true;	//Keep latency sketches as frames finish?
+	private EngineProfiler profiler = null;	//Times the engine's phases and events, if set.
+	private Object flightRecorderEvents = null;	//Subscribed FlightRecorderEvents, if on.
+	private Topology topology = Topology.standard();	//The network each run builds.
+	private TrafficModel traffic = TrafficModel.poisson(.5);	//How frames arrive at nodes the topology doesn't say otherwise for.
+	private RoutingEngine routingEngine = null;	//Shortest paths for the current network's routers.
+	
+	private final ArrayList<Bus> changedBusses = new ArrayList<Bus>();	//Only these need their status set.
+	private final ArrayList<Link> changedLinks = new ArrayList<Link>();	//Only these need routing looked at again.
+	
+	public SimulationContext() {
+		this("");
+	}
+	
+	/**
+	 * A context with a master seed of its own choosing, different every time.
+	 */
+	public SimulationContext(String outputPrefix) {
+		this(outputPrefix, new SplittableRandom().nextLong());
+	}
+	
+	/**
+	 * A context whose random numbers all come from the given master seed, so the
+	 * same seed gives the same run.
+	 */
+	public SimulationContext(String outputPrefix, long seed) {
+		this.clock = new Clock();
+		this.monitor = new ProgressMonitor(clock, events);
+		this.random = new RandomService(seed);
+		this.outputPrefix = outputPrefix;
+	}
+	
+	public Clock getClock() { return clock; }
+	public ProgressMonitor getMonitor() { return monitor; }
+	public SimulationEvents getEvents() { return events; }
+	public RandomService getRandom() { return random; }
+	public ElementRegistry getRegistry() { return registry; }
+	public String getOutputPrefix() { return outputPrefix; }
+	public boolean isWritingFrames() { return writingFrames; }
+	public TraceFormat getTraceFormat() { return traceFormat; }
+	public long getMetricsInterval() { return metricsInterval; }
+	public boolean isTrackingLatency() { return trackingLatency; }
+	public EngineProfiler getProfiler() { return profiler; }
+	public Topology getTopology() { return topology; }
+	public TrafficModel getTraffic() { return traffic; }
+	
+	/**
+	 * Turn off the per-frame records (the A.csv files) for runs that only want totals.
+	 * Has to be set before the nodes are built.
+	 */
+	public void setWritingFrames(boolean writing) { this.writingFrames = writing; }
+	
+	/**
+	 * Write frame records as binary traces (A.trace) instead of CSV. Has to be set
+	 * before the nodes are built; BinaryTraceReader turns them back into CSV.
+	 */
+	public void setTraceFormat(TraceFormat format) { this.traceFormat = format; }
+	
+	/**
+	 * Write a row of time-series metrics (metrics.csv) every this many slots, or
+	 * never for 0. MetricsCollector.SLOTS_PER_SECOND gives one every simulated second.
+	 */
+	public void setMetricsInterval(long slots) { this.metricsInterval = slots; }
+	
+	/**
+	 * Turn off the latency sketches (latency.csv and the latency.* statistics).
+	 */
+	public void setTrackingLatency(boolean tracking) { this.trackingLatency = tracking; }
+	
+	/**
+	 * Simulate this network instead of the standard one. Each run builds its own elements from it.
+	 */
+	public void setTopology(Topology topology) { this.topology = topology; }
+	
+	/**
+	 * How frames arrive at every node whose topology doesn't give it traffic of its own,
+	 * e.g. TrafficModel.onOff for bursty sources. Has to be set before the nodes are built.
+	 */
+	public void setTraffic(TrafficModel traffic) { this.traffic = traffic; }
+	
+	/**
+	 * Profile the engine with a new EngineProfiler, or stop. A reporting run prints where
+	 * the time went; otherwise look at getProfiler afterwards.
+	 */
+	public void setProfiling(boolean profiling) { this.profiler = profiling ? new EngineProfiler() : null; }
+	
+	/**
+	 * Emit Java Flight Recorder events for transmissions, deliveries, collisions and
+	 * routing updates (see FlightRecorderEvents), or stop. Off by default: while on, every
+	 * one of those events builds a JFR event object, recording or not, so only turn it on
+	 * for runs that are being recorded.
+	 * @return	false if this JVM has no flight recorder (no jdk.jfr module), so nothing changed.
+	 */
+	public boolean setFlightRecorderEvents(boolean on) {
+		if (!on) {
+			if (flightRecorderEvents != null)
+				events.unsubscribeAll(flightRecorderEvents);
+			flightRecorderEvents = null;
+			return true;
+		}
+		if (flightRecorderEvents != null)
+			return true;
+		try {
+			flightRecorderEvents = Class.forName("FlightRecorderEvents")
+					.getConstructor(SimulationContext.class).newInstance(this);
+			return true;
+		} catch (ReflectiveOperationException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;		//jdk.jfr isn't there
+		}
+	}
+	
+	/**
+	 * The routing engine for this list of routers, built the first time any of them asks,
+	 * and again only if a different list (a new network) asks.
+	 */
+	public RoutingEngine getRoutingEngine(ArrayList<Router> routers) {
+		if (routingEngine == null || !routingEngine.isFor(routers)) {
+			clearChangedLinks();		//A new engine starts from every cost anyway.
+			routingEngine = new RoutingEngine(this, routers);
+		}
+		return routingEngine;
+	}
+	
+	/**
+	 * The background writer for frame records, started on first use.
+	 */
+	public TraceWriter getTraceWriter() {
+		if (traceWriter == null)
+			traceWriter = new TraceWriter(registry, "trace-writer-" + outputPrefix);
+		return traceWriter;
+	}
+	
+	/**
+	 * Wait for every frame record to reach the disk, and drain the monitor. Call once
+	 * the nodes have closed their files.
+	 */
+	public void close() {
+		monitor.close();
+		if (traceWriter != null) {
+			traceWriter.shutdown();
+			traceWriter = null;
+		}
+	}
+	
+	/**
+	 * Called by a bus the first time its count of transmitters moves in a step.
+	 */
+	void busChanged(Bus bus) {
+		changedBusses.add(bus);
+	}
+	
+	/**
+	 * Called by a link the first time its cost moves between routing updates.
+	 */
+	void linkCostChanged(Link link) {
+		changedLinks.add(link);
+	}
+	
+	/**
+	 * @return	Every link whose cost has moved since clearChangedLinks.
+	 */
+	ArrayList<Link> getChangedLinks() {
+		return changedLinks;
+	}
+	
+	void clearChangedLinks() {
+		for (int i = 0; i < changedLinks.size(); ++i)
+			changedLinks.get(i).costChanged = false;
+		changedLinks.clear();
+	}
+	
+	/**
+	 * Set the status of every bus that was claimed, released, or delivered to since the last
+	 * time this was called. setStatus does nothing on a bus whose count hasn't moved, so
+	 * this is the same as setting it on every bus.
+	 */
+	public void updateBusStatuses() {
+		for (int i = 0; i < changedBusses.size(); ++i) {
+			Bus bus = changedBusses.get(i);
+			bus.changed = false;
+			bus.setStatus();
+		}
+		changedBusses.clear();
+	}
+}
@@ -6,56 +6,180 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 
 public class SimulationDriver {
-	public static void main(String[] args) {
+	/**
+	 * 		java SimulationDriver [topology file]
+	 * 
+	 * Without a file, the standard two-LAN network; see Topology.read for the format.
+	 * Add -Dnetworks.jfr=true to emit Flight Recorder events, e.g. along with
+	 * -XX:StartFlightRecording; they're off otherwise.
+	 */
+	public static void main(String[] args) throws IOException {
+		Topology topology = args.length > 0 ? Topology.read(new File(args[0])) : Topology.standard();
 		//for (int i = 2; i <= 10; i += 2)
-			simulate(30, false);
+			simulate(topology, 30, false);
+	}
+
+	private static void simulate(Topology topology, long seconds, boolean print) {
+		SimulationContext context = new SimulationContext();
+		context.setTopology(topology);
+		context.setMetricsInterval(MetricsCollector.SLOTS_PER_SECOND);
+		if (Boolean.getBoolean("networks.jfr"))
+			context.setFlightRecorderEvents(true);
+		simulate(context, seconds, print);
 	}
 
 	/**
+	 * context: everything this run owns (clock, monitor, random numbers). Give each
+	 * 			run its own, and any number of them can run at once on different threads.
 	 * seconds: duration of simulation
 	 * print: do you want verbose output?
 	 */
-	private static void simulate(long seconds, boolean print) {
-		Clock.reset();
-		ProgressMonitor.reset();
+	public static void simulate(SimulationContext context, long seconds, boolean print) {
+		run(context, seconds, print, true);
+	}
+	
+	/**
+	 * Run one replication quietly: no console output and no files, just the end-of-run
+	 * numbers that printData would have printed.
+	 */
+	public static SimulationStatistics replicate(SimulationContext context, long seconds) {
+		context.setWritingFrames(false);
+		return run(context, seconds, false, false);
+	}
+	
+	/**
+	 * Like replicate, but with whatever frame records the context asks for, so a run
+	 * can be measured with them as well as without.
+	 */
+	public static SimulationStatistics measure(SimulationContext context, long seconds) {
+		return run(context, seconds, false, false);
+	}
+
+	/**
+	 * report: print and write out the end-of-run data?
+	 */
+	private static SimulationStatistics run(SimulationContext context, long seconds, boolean print, boolean report) {
+		Clock clock = context.getClock();
+		clock.reset();
+		ProgressMonitor monitor = context.getMonitor();
+		monitor.reset();
+		if (print && monitor.getLevel() == LogLevel.OFF)
+			monitor.setLevel(LogLevel.TRACE);		//verbose means everything, as it always has
 		
-		ArrayList<Node> nodes = makeNodes();
-		ArrayList<Router> routers = makeRouters();
-		Clock.setDuration(seconds);
+		TopologyBuilder network = context.getTopology().build(context);
+		ArrayList<Node> nodes = network.getNodes();
+		ArrayList<Router> routers = network.getRouters();
+		ArrayList<Bus> busses = network.getBusses();
+		clock.setDuration(seconds);
 		
-		ArrayList<Bus> busses = makeBussesAndLinks(nodes, routers);
+		if (clock.isSkippingIdleSlots())
+			startArrivals(nodes);
+		MetricsCollector metrics = context.getMetricsInterval() > 0
+				? new MetricsCollector(context, context.getMetricsInterval(), nodes, routers, busses) : null;
+		LatencyTracker latency = context.isTrackingLatency() ? new LatencyTracker(context) : null;
+		EngineProfiler profiler = context.getProfiler();
+		clock.setProfiler(profiler);
+		if (profiler != null)
+			profiler.start();
 		
 		do {
 			try {
-				if (Clock.isUpdateTableTime()) {
-					randomizeCosts(busses);
+				long lap = profiler == null ? 0 : System.nanoTime();		//when the current phase started
+				if (clock.isUpdateTableTime()) {
+					randomizeCosts(context, busses);
+					lap = lap(profiler, EngineProfiler.Phase.RANDOMIZE_COSTS, lap);
 					updateTables(routers, busses);
+					lap = lap(profiler, EngineProfiler.Phase.UPDATE_TABLES, lap);
 				}
 				
 				//All events are recorded by the exact time they're completed, not by how long they 
 				//should take. This reduces math done throughout a process.
-				finishPropagations(busses);				//deliver frames/ACKs
-				finishTransmissions(nodes, routers);		//finish a transmission, start propagation
-				detectCollisions(nodes, routers, busses);		//detect any collisions on a bus
+				//Only the elements with an event due right now are touched.
+				finishPropagations(context);				//deliver frames/ACKs
+				lap = lap(profiler, EngineProfiler.Phase.FINISH_PROPAGATIONS, lap);
+				finishTransmissions(context);				//finish a transmission, start propagation
+				lap = lap(profiler, EngineProfiler.Phase.FINISH_TRANSMISSIONS, lap);
+				detectCollisions(context);					//detect any collisions on a bus
+				lap = lap(profiler, EngineProfiler.Phase.DETECT_COLLISIONS, lap);
 				
-				if (Clock.isSlotTime()) {	
-					generateFrames(nodes);		//calculate how many new frames arrive
-					startTransmissions(nodes, routers, busses);	//see which nodes start transmitting
+				if (clock.isSlotTime()) {	
+					generateFrames(context, nodes);		//calculate how many new frames arrive
+					lap = lap(profiler, EngineProfiler.Phase.GENERATE_FRAMES, lap);
+					startTransmissions(context, nodes, routers);	//see which nodes start transmitting
+					lap = lap(profiler, EngineProfiler.Phase.START_TRANSMISSIONS, lap);
+					clock.fireEvents(EventType.SAMPLE);		//probe the queues for the metrics
+					lap = lap(profiler, EngineProfiler.Phase.SAMPLE_METRICS, lap);
 				}		
 						
-				if (print) {
-					ProgressMonitor.flush();
+				if (monitor.getLevel() != LogLevel.OFF)
+					monitor.flush();
+				if (print)
 					flush(nodes, routers, busses);
-				}
+				if (monitor.getLevel() != LogLevel.OFF || print)
+					lap(profiler, EngineProfiler.Phase.PRINT, lap);
 			} catch (UnsupportedOperationException e) {
 				System.out.println(e.getMessage());
 				break;
 			}
-		} while (Clock.step());
+		} while (clock.step());
+		
+		if (profiler != null) {
+			profiler.finish(clock.time());
+			clock.setProfiler(null);
+		}
 		
 		//writeStatsEachSecond(nodes);
-		printData(nodes, routers);
+		if (report) {
+			printData(context, nodes, routers);
+			if (profiler != null)
+				System.out.print(profiler);
+			if (latency != null)
+				latency.writeOut(context.getOutputPrefix() + "latency.csv");
+		}
 		//deleteExtraFiles(nodes);
+		closeFiles(nodes);		//whether or not anything was reported, before the writer stops
+		if (metrics != null)
+			metrics.close();
+		if (latency != null)
+			latency.close();
+		context.close();
+		
+		SimulationStatistics stats = collectStatistics(context, nodes, routers);
+		if (latency != null)
+			latency.record(stats);
+		return stats;
+	}
+	
+	/**
+	 * Charge the time since the last lap to the phase, if profiling.
+	 * @return	The start of the next phase.
+	 */
+	private static long lap(EngineProfiler profiler, EngineProfiler.Phase phase, long since) {
+		return profiler == null ? 0 : profiler.lap(phase, since);
+	}
+	
+	/**
+	 * The same numbers printData prints, by name, e.g. "A.collisions" or "R0.sentByLink".
+	 */
+	private static SimulationStatistics collectStatistics(SimulationContext context, ArrayList<Node> nodes, ArrayList<Router> routers) {
+		SimulationStatistics stats = new SimulationStatistics();
+		stats.record("collisions", context.getMonitor().getCollisions());
+		
+		for (Node node : nodes) {
+			stats.record(node.getName() + ".buffer", node.getBuffer());
+			stats.record(node.getName() + ".collisions", node.getCollisions());
+			stats.record(node.getName() + ".sent", node.getCurrentID() - 1);
+			stats.record(node.getName() + ".made", node.all);
+		}
+		
+		for (Router router : routers) {
+			stats.record(router.getName() + ".collisions", router.getCollisions());
+			stats.record(router.getName() + ".received", router.getTraffic());
+			stats.record(router.getName() + ".buffer", router.getBuffer());
+			stats.record(router.getName() + ".sentByLink", router.getSentByLink());
+			stats.record(router.getName() + ".sentByBus", router.getSentByBus());
+		}
+		return stats;
 	}
 
 	private static void flush(ArrayList<Node> nodes, ArrayList<Router> routers, ArrayList<Bus> busses) {
@@ -73,79 +197,34 @@ public class SimulationDriver {
 		System.out.println();
 	}
 
+	private static void startArrivals(ArrayList<Node> nodes) {
+		for (Node node : nodes) {
+			node.startArrivals();
+		}
+	}
+	
 	/**
-	 * In the below three methods, we need to construct the network by hand.
-	 * We can replace these methods with a single one, if we want.
-	 * Whatever works.
+	 * When skipping idle slots, only the nodes with arrivals this slot, and only the
+	 * elements that asked for this slot, are touched. Otherwise everyone is.
 	 */
-	private static ArrayList<Node> makeNodes() {
-		ArrayList<Node> nodes = new ArrayList<Node>();
-		for (int i = 0; i < 4; ++i) {
-			nodes.add(new Node((char) (i + 'A') + ""));
-		}
-		
-		for (Node node: nodes) {
-			node.setAllNodes(new ArrayList<Node>(nodes));
+	private static void generateFrames(SimulationContext context, ArrayList<Node> nodes) {
+		if (context.getClock().isSkippingIdleSlots()) {
+			context.getClock().fireEvents(EventType.FRAME_ARRIVAL);
+			return;
 		}
 		
-		return nodes;
-	}
-	private static ArrayList<Router> makeRouters() {
-		ArrayList<Router> routers = new ArrayList<Router>();
-		for (int i = 0; i < 4; ++i) {
-			routers.add(new Router("R" + i, new DijkstrasAlgorithm())); 
-		}
-		return routers;
-	}
-	
-	private static ArrayList<Bus> makeBussesAndLinks(ArrayList<Node> nodes, ArrayList<Router> routers) {
-		Bus BUS_1 = new Bus("BUS_1");
-		BUS_1.addNode(nodes.get(0));
-		BUS_1.addNode(nodes.get(1));
-		BUS_1.addRouter(routers.get(0));
-		BUS_1.addRouter(routers.get(1));
-		
-		Bus BUS_2 = new Bus("BUS_2");
-		BUS_2.addNode(nodes.get(2));
-		BUS_2.addNode(nodes.get(3));
-		BUS_2.addRouter(routers.get(2));
-		BUS_2.addRouter(routers.get(3));
-		
-		Link L03 = new Link("L0-3"),
-		     L02 = new Link("L0-2"),
-		     L13 = new Link("L1-3"),
-		     L12 = new Link("L1-2");
-		
-		L03.addRouter(routers.get(0));		
-		L03.addRouter(routers.get(3));	
-		
-		L02.addRouter(routers.get(0));	
-		L02.addRouter(routers.get(2));	
-		
-		L13.addRouter(routers.get(1));	
-		L13.addRouter(routers.get(3));
-		
-		L12.addRouter(routers.get(1));	
-		L12.addRouter(routers.get(2));	
-		
-		ArrayList<Bus> allBusses = new ArrayList<Bus>();
-		allBusses.add(BUS_1);
-		allBusses.add(BUS_2);
-		allBusses.add(L12);
-		allBusses.add(L13);
-		allBusses.add(L02);
-		allBusses.add(L03);
-		
-		return allBusses;
-	}
-	
-	private static void generateFrames(ArrayList<Node> nodes) {
 		for (Node node : nodes) {
 			node.generateFrames();
 		}
 	}
 		
-	private static void startTransmissions(ArrayList<Node> nodes, ArrayList<Router> routers, ArrayList<Bus> busses) {
+	private static void startTransmissions(SimulationContext context, ArrayList<Node> nodes, ArrayList<Router> routers) {
+		if (context.getClock().isSkippingIdleSlots()) {
+			context.getClock().fireEvents(EventType.SLOT);
+			context.updateBusStatuses();
+			return;
+		}
+		
 		for (NetworkElementInterface node : nodes) {
 			node.sendFrameIfReady();
 		}
@@ -154,59 +233,46 @@ public class SimulationDriver {
 			node.sendFrameIfReady();
 		}
 		
-		for (Bus bus : busses) bus.setStatus();					//set the status of the bus
+		context.updateBusStatuses();					//set the status of the busses
 	}
 	
-	private static void finishTransmissions(ArrayList<Node> nodes, ArrayList<Router> routers) {
-		for (NetworkElementInterface node : nodes) {
-			node.finishTransmission();
-		}		
-		
-		for (NetworkElementInterface node : routers) {
-			node.finishTransmission();
-		}		
+	private static void finishTransmissions(SimulationContext context) {
+		context.getClock().fireEvents(EventType.TRANSMISSION_FINISH);
 	}
 
-	private static void detectCollisions(ArrayList<Node> nodes, ArrayList<Router> routers, ArrayList<Bus> busses) {
-		for (Node node : nodes) {
-			node.checkCollision();
-		}
-		
-		for (NetworkElementInterface node : routers) {
-			node.checkCollision();
-		}		
-		
-		for (Bus bus : busses) bus.setStatus();					//set the status of the bus
+	private static void detectCollisions(SimulationContext context) {
+		context.getClock().fireEvents(EventType.COLLISION_CHECK);
+		context.updateBusStatuses();					//set the status of the busses
 	}
 	
-	private static void finishPropagations(ArrayList<Bus> busses) {
-		for (Bus bus : busses) {
-			bus.checkIfFramesDone();
-			bus.setStatus();					//set the status of the bus
-		}
+	private static void finishPropagations(SimulationContext context) {
+		context.getClock().fireEvents(EventType.PROPAGATION_FINISH);
+		context.updateBusStatuses();					//set the status of the busses
 	}
 	
-	private static void randomizeCosts(ArrayList<Bus> busses) {
-		ProgressMonitor.write("\nRandomizing costs...");
-		for (Bus bus : busses) {
-			if (bus instanceof Link) {
-				((Link) bus).randomCost();
+	private static void randomizeCosts(SimulationContext context, ArrayList<Bus> busses) {
+		context.getMonitor().write(LogLevel.INFO, "\nRandomizing costs...");
+		for (int i = 0; i < busses.size(); ++i) {		//by index, so no iterator is allocated each update
+			if (busses.get(i) instanceof Link) {
+				((Link) busses.get(i)).randomCost();
 			}
 		}
 	}
 	
 	private static void updateTables(ArrayList<Router> routers, ArrayList<Bus> busses) {
-		for (Router router : routers) {
-			router.updateTable(new ArrayList<Router>(routers), 
-					new ArrayList<Bus>(busses));
+		for (int i = 0; i < routers.size(); ++i) {
+			routers.get(i).updateTable(routers, busses);		//The same lists every time, so the routing graph is built once.
 		}
 	}
 	
-	private static void printData(ArrayList<Node> nodes, ArrayList<Router> routers) {
-		PrintWriter write = ProgressMonitor.getWriter("all-" + nodes.size() + ".CSV"),
-					regData = ProgressMonitor.getWriter("regularData.txt");
-		String collisions = "There were " + ProgressMonitor.getCollisions() + " collisions.";
+	private static void printData(SimulationContext context, ArrayList<Node> nodes, ArrayList<Router> routers) {
+		PrintWriter write = ProgressMonitor.getWriter(context.getOutputPrefix() + "all-" + nodes.size() + ".CSV"),
+					regData = ProgressMonitor.getWriter(context.getOutputPrefix() + "regularData.txt");
+		String collisions = "There were " + context.getMonitor().getCollisions() + " collisions.";
 		System.out.println(collisions);
+		ProgressMonitor monitor = context.getMonitor();
+		System.out.printf("The routing table cache found %d of %d updates' tables (%.1f%%).\n",
+				monitor.getRoutingHits(), monitor.getRoutingLookups(), 100 * monitor.getRoutingHitRate());
 		//regData.println(collisions);
 		for (Node node : nodes) {
 			String printout = "Node " + node.getName() + " has " + node.getBuffer() + " waiting\n"
@@ -227,8 +293,6 @@ public class SimulationDriver {
 //				write.flush();
 //				in.close();
 //			} catch (IOException e) {}
-			
-			node.writeOut();
 		}
 		
 		for (Router router : routers) {
@@ -241,6 +305,12 @@ public class SimulationDriver {
 		
 	}
 
+	private static void closeFiles(ArrayList<Node> nodes) {
+		for (Node node : nodes) {
+			node.writeOut();
+		}
+	}
+
 	private static void deleteExtraFiles(ArrayList<Node> nodes) {
 		for (NetworkElementInterface node : nodes) {			
 			File nodefile = new File(node.getName() + ".CSV");
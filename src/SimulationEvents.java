@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * What happens in a run, published by the nodes, routers and busses as it happens.
+ * Anything that wants to watch (statistics, traces, debug printouts) subscribes to the
+ * kinds of event it cares about instead of being called from the hot paths directly.
+ * 
+ * Nothing is allocated to publish: each kind of event is a method call with the objects
+ * involved, and its listeners are kept in an array that's replaced when someone
+ * subscribes or unsubscribes. With nobody listening, publishing is one length check.
+ * Listeners are called on the simulation thread, in the order they subscribed.
+ * @author Justin
+ *
+ */
+public class SimulationEvents {
+	/** An element has started putting a frame on a bus or link. */
+	public interface TransmissionStarted {
+		void onTransmissionStarted(Frame frame, Bus path);
+	}
+	
+	/** An element has finished putting a frame on a bus or link; it now propagates. */
+	public interface TransmissionFinished {
+		void onTransmissionFinished(Frame frame, Bus path);
+	}
+	
+	/** A frame and its ACK are done propagating, and the frame is at its next hop. */
+	public interface Delivered {
+		void onDelivered(Frame frame, Bus path);
+	}
+	
+	/** An element has detected a collision for its frame and will wait backoff slots. */
+	public interface Collision {
+		void onCollision(NetworkElementInterface element, Frame frame, int backoff);
+	}
+	
+	/** A bus has gone from clear to collided. */
+	public interface BusCollision {
+		void onBusCollision(Bus bus);
+	}
+	
+	/** A frame has reached its destination; its trace is complete. */
+	public interface FrameFinished {
+		void onFrameFinished(Frame frame);
+	}
+	
+	/** A router has a new routing table. */
+	public interface RoutingUpdated {
+		void onRoutingUpdated(Router router);
+	}
+	
+	private TransmissionStarted[] transmissionStarted = new TransmissionStarted[0];
+	private TransmissionFinished[] transmissionFinished = new TransmissionFinished[0];
+	private Delivered[] delivered = new Delivered[0];
+	private Collision[] collision = new Collision[0];
+	private BusCollision[] busCollision = new BusCollision[0];
+	private FrameFinished[] frameFinished = new FrameFinished[0];
+	private RoutingUpdated[] routingUpdated = new RoutingUpdated[0];
+	
+	//One name per kind, so a lambda or an object that listens for several kinds is never ambiguous.
+	public void subscribeTransmissionStarted(TransmissionStarted listener) { transmissionStarted = add(transmissionStarted, listener); }
+	public void subscribeTransmissionFinished(TransmissionFinished listener) { transmissionFinished = add(transmissionFinished, listener); }
+	public void subscribeDelivered(Delivered listener) { delivered = add(delivered, listener); }
+	public void subscribeCollision(Collision listener) { collision = add(collision, listener); }
+	public void subscribeBusCollision(BusCollision listener) { busCollision = add(busCollision, listener); }
+	public void subscribeFrameFinished(FrameFinished listener) { frameFinished = add(frameFinished, listener); }
+	public void subscribeRoutingUpdated(RoutingUpdated listener) { routingUpdated = add(routingUpdated, listener); }
+	
+	/**
+	 * Subscribe to every kind of event the listener implements.
+	 */
+	public void subscribeAll(Object listener) {
+		if (listener instanceof TransmissionStarted) subscribeTransmissionStarted((TransmissionStarted) listener);
+		if (listener instanceof TransmissionFinished) subscribeTransmissionFinished((TransmissionFinished) listener);
+		if (listener instanceof Delivered) subscribeDelivered((Delivered) listener);
+		if (listener instanceof Collision) subscribeCollision((Collision) listener);
+		if (listener instanceof BusCollision) subscribeBusCollision((BusCollision) listener);
+		if (listener instanceof FrameFinished) subscribeFrameFinished((FrameFinished) listener);
+		if (listener instanceof RoutingUpdated) subscribeRoutingUpdated((RoutingUpdated) listener);
+	}
+	
+	/**
+	 * Unsubscribe from every kind of event the listener was subscribed to.
+	 */
+	public void unsubscribeAll(Object listener) {
+		transmissionStarted = remove(transmissionStarted, listener);
+		transmissionFinished = remove(transmissionFinished, listener);
+		delivered = remove(delivered, listener);
+		collision = remove(collision, listener);
+		busCollision = remove(busCollision, listener);
+		frameFinished = remove(frameFinished, listener);
+		routingUpdated = remove(routingUpdated, listener);
+	}
+	
+	public void transmissionStarted(Frame frame, Bus path) {
+		TransmissionStarted[] listeners = transmissionStarted;
+		if (listeners.length == 0) return;
+		for (TransmissionStarted listener : listeners)
+			listener.onTransmissionStarted(frame, path);
+	}
+	
+	public void transmissionFinished(Frame frame, Bus path) {
+		TransmissionFinished[] listeners = transmissionFinished;
+		if (listeners.length == 0) return;
+		for (TransmissionFinished listener : listeners)
+			listener.onTransmissionFinished(frame, path);
+	}
+	
+	public void delivered(Frame frame, Bus path) {
+		Delivered[] listeners = delivered;
+		if (listeners.length == 0) return;
+		for (Delivered listener : listeners)
+			listener.onDelivered(frame, path);
+	}
+	
+	public void collision(NetworkElementInterface element, Frame frame, int backoff) {
+		Collision[] listeners = collision;
+		if (listeners.length == 0) return;
+		for (Collision listener : listeners)
+			listener.onCollision(element, frame, backoff);
+	}
+	
+	public void busCollision(Bus bus) {
+		BusCollision[] listeners = busCollision;
+		if (listeners.length == 0) return;
+		for (BusCollision listener : listeners)
+			listener.onBusCollision(bus);
+	}
+	
+	public void frameFinished(Frame frame) {
+		FrameFinished[] listeners = frameFinished;
+		if (listeners.length == 0) return;
+		for (FrameFinished listener : listeners)
+			listener.onFrameFinished(frame);
+	}
+	
+	public void routingUpdated(Router router) {
+		RoutingUpdated[] listeners = routingUpdated;
+		if (listeners.length == 0) return;
+		for (RoutingUpdated listener : listeners)
+			listener.onRoutingUpdated(router);
+	}
+	
+	private static <T> T[] add(T[] listeners, T listener) {
+		for (T existing : listeners)
+			if (existing == listener)
+				return listeners;		//already subscribed
+		T[] added = Arrays.copyOf(listeners, listeners.length + 1);
+		added[listeners.length] = listener;
+		return added;
+	}
+	
+	private static <T> T[] remove(T[] listeners, Object listener) {
+		for (int i = 0; i < listeners.length; ++i) {
+			if (listeners[i] == listener) {
+				T[] removed = Arrays.copyOf(listeners, listeners.length - 1);
+				System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+				return removed;
+			}
+		}
+		return listeners;
+	}
+}
@@ -0,0 +1,18 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The end-of-run numbers from one simulation, by name (e.g. "A.collisions", "R0.buffer").
+ * Names keep the order they were recorded in, so reports list nodes before routers.
+ */
+public class SimulationStatistics {
+	private final LinkedHashMap<String, Double> values = new LinkedHashMap<String, Double>();
+	
+	public void record(String name, double value) {
+		values.put(name, value);
+	}
+	
+	public Map<String, Double> getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,178 @@
+import java.util.PriorityQueue;
+
+/**
+ * A timing wheel with one bucket per microsecond, wide enough to hold a number of
+ * 50 microsecond slots. Every event the simulation schedules (transmissions,
+ * propagations, collision checks) lands well inside that window, so inserting and
+ * removing is just linking an event into or out of a bucket. Events are chained
+ * through Event.next, so the wheel itself allocates nothing once it's built.
+ * 
+ * Each bucket keeps a separate list per EventType so events in the same microsecond
+ * still come out in type order, then in the order they were added. A bitmap of
+ * occupied buckets lets the wheel skip 64 empty microseconds at a time.
+ * 
+ * Anything scheduled past the end of the window waits in a heap and is moved onto the
+ * wheel once the wheel turns far enough to hold it.
+ * 
+ * Cancelled events are unlinked when they reach the front of their bucket, and handed
+ * back to the clock's free list. Dropping them never moves the wheel forward, since the
+ * clock may still be behind them.
+ * @author Justin
+ *
+ */
+public class TimingWheel implements EventQueue {
+	private static final int TYPES = EventType.values().length;
+	
+	private final int size,				//number of microsecond buckets, a power of two
+					  mask;
+	private final Event[] heads,		//per bucket, per type
+						  tails;
+	private final long[] occupied;		//one bit per bucket that has any event in it
+	private final PriorityQueue<Event> overflow = new PriorityQueue<Event>();	//too far in the future for the wheel
+	
+	private long now = 0;				//time of the last event removed; nothing on the wheel is earlier
+	private int onWheel = 0;
+	private Event first = null;			//cached result of peek, cleared whenever it could change
+	
+	/**
+	 * @param slots			How many slots the wheel should cover before falling back to the heap.
+	 * @param slotLength	Length of a slot in microseconds.
+	 */
+	public TimingWheel(int slots, long slotLength) {
+		int wanted = (int) Math.max(64, slots * slotLength);
+		this.size = Integer.highestOneBit(wanted - 1) << 1;
+		this.mask = size - 1;
+		this.heads = new Event[size * TYPES];
+		this.tails = new Event[size * TYPES];
+		this.occupied = new long[size >>> 6];
+	}
+	
+	@Override
+	public void add(Event event) {
+		long time = event.getTime();
+		if (time < now)
+			throw new IllegalArgumentException("TimingWheel: event at " + time + " is before " + now);
+		
+		if (time - now >= size) 
+			overflow.add(event);
+		else 
+			link(event);
+		
+		if (first != null && event.compareTo(first) < 0)
+			first = event;
+	}
+	
+	@Override
+	public Event peek() {
+		if (first == null || first.isCancelled())
+			first = findFirst();
+		return first;
+	}
+	
+	@Override
+	public Event remove() {
+		Event event = peek();
+		if (event == null)
+			return null;
+		first = null;
+		
+		if (onWheel > 0) {
+			unlinkHead(event);
+		} else {
+			overflow.poll();
+		}
+		
+		now = event.getTime();
+		while (!overflow.isEmpty() && overflow.peek().getTime() - now < size) 
+			link(overflow.poll());
+		
+		return event;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return onWheel == 0 && overflow.isEmpty();
+	}
+	
+	@Override
+	public int size() {
+		return onWheel + overflow.size();
+	}
+	
+	//////////////////////////////////////////////////////////////////////////////////
+	
+	private void link(Event event) {
+		int bucket = (int) (event.getTime() & mask),
+			index = bucket * TYPES + event.getType().ordinal();
+		event.next = null;
+		if (tails[index] == null)
+			heads[index] = event;
+		else
+			tails[index].next = event;
+		tails[index] = event;
+		occupied[bucket >>> 6] |= 1L << bucket;
+		++onWheel;
+	}
+	
+	/**
+	 * Remove an event that is at the head of its list. Only ever called with the event
+	 * peek() found, which is always a head.
+	 */
+	private void unlinkHead(Event event) {
+		int bucket = (int) (event.getTime() & mask),
+			index = bucket * TYPES + event.getType().ordinal();
+		heads[index] = event.next;
+		if (heads[index] == null) {
+			tails[index] = null;
+			if (isBucketEmpty(bucket))
+				occupied[bucket >>> 6] &= ~(1L << bucket);
+		}
+		event.next = null;
+		--onWheel;
+	}
+	
+	private boolean isBucketEmpty(int bucket) {
+		for (int i = bucket * TYPES; i < (bucket + 1) * TYPES; ++i)
+			if (heads[i] != null) 
+				return false;
+		return true;
+	}
+	
+	private Event findFirst() {
+		while (onWheel > 0) {
+			Event head = firstOnWheel();
+			if (!head.isCancelled())
+				return head;
+			unlinkHead(head);
+			head.release();
+		}
+		
+		while (!overflow.isEmpty() && overflow.peek().isCancelled())
+			overflow.poll().release();
+		return overflow.peek();
+	}
+	
+	private Event firstOnWheel() {
+		int bucket = nextOccupied((int) (now & mask));
+		for (int i = bucket * TYPES; i < (bucket + 1) * TYPES; ++i)
+			if (heads[i] != null)
+				return heads[i];
+		return null;	//can't happen: the bit was set
+	}
+	
+	/**
+	 * Find the first occupied bucket at or after the given one, wrapping around the wheel.
+	 */
+	private int nextOccupied(int from) {
+		int words = occupied.length,
+			word = from >>> 6;
+		long bits = occupied[word] & (-1L << from);
+		for (int i = 0; i <= words; ++i) {
+			if (bits != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			word = (word + 1) % words;
+			bits = occupied[word];
+		}
+		return -1;
+	}
+}
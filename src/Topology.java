@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+/**
+ * A recipe for the network a run simulates: which nodes, routers, busses and links there
+ * are, and what's connected to what. Every run builds its own elements from the recipe,
+ * so one Topology can be handed to any number of contexts at once.
+ *
+ * standard() is the two-LAN, four-router network the simulation has always run. read()
+ * takes the same kind of declarations from a file, and lans() and mesh() generate whole
+ * families of networks. Building is linear in the number of elements and connections,
+ * so tens of thousands of elements are fine.
+ * @author Justin
+ *
+ */
+public abstract class Topology {
+	/**
+	 * The network SimulationDriver has always run, in the file format read() takes.
+	 */
+	private static final String STANDARD =
+			  "node A B C D\n"
+			+ "router R0 R1 R2 R3\n"
+			+ "bus BUS_1 A B R0 R1\n"
+			+ "bus BUS_2 C D R2 R3\n"
+			+ "link L0-3 R0 R3\n"
+			+ "link L0-2 R0 R2\n"
+			+ "link L1-3 R1 R3\n"
+			+ "link L1-2 R1 R2\n";
+	
+	private final String description;
+	
+	protected Topology(String description) {
+		this.description = description;
+	}
+	
+	/**
+	 * Add every element and connection to the builder.
+	 */
+	protected abstract void declare(TopologyBuilder builder);
+	
+	/**
+	 * Build this network's elements for one run.
+	 */
+	public TopologyBuilder build(SimulationContext context) {
+		TopologyBuilder builder = new TopologyBuilder(context);
+		declare(builder);
+		builder.finish();
+		return builder;
+	}
+	
+	public String toString() {
+		return description;
+	}
+	
+	/**
+	 * Nodes A and B with routers R0 and R1 on BUS_1, C and D with R2 and R3 on BUS_2, and
+	 * a link from each of R0 and R1 to each of R2 and R3.
+	 */
+	public static Topology standard() {
+		try {
+			return read(new StringReader(STANDARD), "standard");
+		} catch (IOException e) {
+			throw new IllegalStateException("Topology: the standard network doesn't parse.", e);
+		}
+	}
+	
+	public static Topology read(File file) throws IOException {
+		FileReader in = new FileReader(file);
+		try {
+			return read(in, file.getName());
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read a network, one declaration per line:
+	 *
+	 * 		node NAME...					nodes
+	 * 		router NAME...					routers
+	 * 		bus NAME MEMBER...				a bus, and the nodes and routers on it
+	 * 		link NAME ROUTER ROUTER			a link between two routers
+	 * 		traffic NODE MODEL PARAM...		how frames arrive at a node, or with * for NODE, at
+	 * 										every node not given its own (see TrafficModel.parse)
+	 *
+	 * Nodes without traffic of their own, in a network without a *, get the context's default.
+	 * Everything after a # is a comment. Every name has to be new, and an element has to be
+	 * declared before anything connects to it, so the whole file is checked here, in one pass.
+	 * @param source	What to call the network in error messages and toString.
+	 * @throws IOException	if it can't be read, or a line doesn't make sense.
+	 */
+	public static Topology read(Reader reader, String source) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		HashMap<String, String> kinds = new HashMap<String, String>();		//Every name so far, and what it is.
+		ArrayList<String[]> declarations = new ArrayList<String[]>();
+		String line;
+		int lineNumber = 0;
+		
+		while ((line = in.readLine()) != null) {
+			++lineNumber;
+			int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			
+			String[] words = line.split("\\s+");
+			String problem = check(words, kinds);
+			if (problem != null)
+				throw new IOException(source + ", line " + lineNumber + ": " + problem);
+			declarations.add(words);
+		}
+		return new Declared(source, declarations);
+	}
+	
+	/**
+	 * Make sure a declaration is well-formed, and remember the names it declares.
+	 * @return	What's wrong with it, or null if nothing is.
+	 */
+	private static String check(String[] words, HashMap<String, String> kinds) {
+		String keyword = words[0];
+		if (keyword.equals("node") || keyword.equals("router")) {
+			if (words.length < 2)
+				return keyword + " needs at least one name.";
+			for (int i = 1; i < words.length; ++i)
+				if (kinds.put(words[i], keyword) != null)
+					return words[i] + " is declared twice.";
+		} else if (keyword.equals("bus")) {
+			if (words.length < 3)
+				return "bus needs a name and at least one node or router.";
+			if (kinds.containsKey(words[1]))
+				return words[1] + " is declared twice.";
+			for (int i = 2; i < words.length; ++i) {
+				String kind = kinds.get(words[i]);
+				if (!"node".equals(kind) && !"router".equals(kind))
+					return "there is no node or router " + words[i] + ".";
+			}
+			kinds.put(words[1], keyword);
+		} else if (keyword.equals("link")) {
+			if (words.length != 4)
+				return "link needs a name and exactly two routers.";
+			if (kinds.containsKey(words[1]))
+				return words[1] + " is declared twice.";
+			for (int i = 2; i < 4; ++i)
+				if (!"router".equals(kinds.get(words[i])))
+					return "there is no router " + words[i] + ".";
+			if (words[2].equals(words[3]))
+				return "a link needs two different routers.";
+			kinds.put(words[1], keyword);
+		} else if (keyword.equals("traffic")) {
+			if (words.length < 3)
+				return "traffic needs a node (or *) and a model.";
+			if (!words[1].equals("*") && !"node".equals(kinds.get(words[1])))
+				return "there is no node " + words[1] + ".";
+			if (kinds.put("traffic " + words[1], keyword) != null)		//Names have no spaces, so this can't clash.
+				return (words[1].equals("*") ? "the default" : words[1]) + " already has its traffic.";
+			try {
+				TrafficModel.parse(Arrays.copyOfRange(words, 2, words.length));
+			} catch (IllegalArgumentException e) {
+				return e.getMessage();
+			}
+		} else
+			return "expected node, router, bus, link or traffic, not " + keyword + ".";
+		return null;
+	}
+	
+	/**
+	 * A network read from declarations, already checked.
+	 */
+	private static class Declared extends Topology {
+		private final ArrayList<String[]> declarations;
+		private final HashMap<String, TrafficModel> traffic = new HashMap<String, TrafficModel>();	//By node, or * for the rest.
+		
+		Declared(String source, ArrayList<String[]> declarations) {
+			super(source);
+			this.declarations = declarations;
+			for (String[] words : declarations)
+				if (words[0].equals("traffic"))
+					traffic.put(words[1], TrafficModel.parse(Arrays.copyOfRange(words, 2, words.length)));
+		}
+		
+		/**
+		 * The node's own traffic, or else the network's *, or else null for the context's default.
+		 */
+		private TrafficModel trafficFor(String node) {
+			TrafficModel model = traffic.get(node);
+			return model != null ? model : traffic.get("*");
+		}
+		
+		@Override
+		protected void declare(TopologyBuilder builder) {
+			for (String[] words : declarations) {
+				String keyword = words[0];
+				if (keyword.equals("node"))
+					for (int i = 1; i < words.length; ++i) builder.addNode(words[i], trafficFor(words[i]));
+				else if (keyword.equals("router"))
+					for (int i = 1; i < words.length; ++i) builder.addRouter(words[i]);
+				else if (keyword.equals("bus")) {
+					Bus bus = builder.addBus(words[1]);
+					for (int i = 2; i < words.length; ++i) builder.connect(bus, words[i]);
+				} else if (keyword.equals("link"))
+					builder.addLink(words[1], words[2], words[3]);
+			}
+		}
+	}
+	
+	/**
+	 * A chain of LANs, each a bus with its own stations and two routers, where both routers
+	 * of each LAN have a link to both routers of the next; with three or more LANs the last
+	 * one is linked back to the first, making a ring.
+	 * Nodes are N0, N1..., busses LAN0, LAN1..., routers R0, R1... (R2k and R2k+1 are on
+	 * LANk), and links La-b between routers a and b.
+	 * @param lans		How many LANs (at least one).
+	 * @param stations	How many nodes on each (at least one).
+	 */
+	public static Topology lans(final int lans, final int stations) {
+		if (lans < 1 || stations < 1)
+			throw new IllegalArgumentException("Topology: need at least one LAN with at least one station.");
+		return new Generated("lans(" + lans + "x" + stations + ")", lans, stations) {
+			@Override
+			protected void connect(TopologyBuilder builder) {
+				int joins = lans > 2 ? lans : lans - 1;		//Two LANs are only linked once.
+				for (int k = 0; k < joins; ++k) {
+					int next = (k + 1) % lans;
+					for (int a = 2 * k; a < 2 * k + 2; ++a)
+						for (int b = 2 * next; b < 2 * next + 2; ++b)
+							link(builder, a, b);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * LANs like lans() makes, but with their routers linked at random: a random spanning
+	 * tree, so every router can reach every other, and then extra links between random
+	 * pairs that aren't linked yet. The same seed always makes the same network.
+	 * @param extraLinks	How many links to add beyond the spanning tree; fewer if the
+	 * 						routers run out of unlinked pairs.
+	 * @param seed			For the random links.
+	 */
+	public static Topology mesh(final int lans, final int stations, final int extraLinks, final long seed) {
+		if (lans < 1 || stations < 1)
+			throw new IllegalArgumentException("Topology: need at least one LAN with at least one station.");
+		return new Generated("mesh(" + lans + "x" + stations + ", +" + extraLinks + ", seed " + seed + ")", lans, stations) {
+			@Override
+			protected void connect(TopologyBuilder builder) {
+				SplittableRandom rand = new SplittableRandom(seed);
+				int routers = 2 * lans;
+				HashSet<Long> linked = new HashSet<Long>();
+				
+				for (int b = 1; b < routers; ++b) {
+					int a = rand.nextInt(b);
+					linked.add(pair(a, b));
+					link(builder, a, b);
+				}
+				
+				long unlinked = (long) routers * (routers - 1) / 2 - (routers - 1);
+				for (long added = 0; added < Math.min(extraLinks, unlinked); ) {
+					int a = rand.nextInt(routers),
+						b = rand.nextInt(routers);
+					if (a == b || !linked.add(pair(Math.min(a, b), Math.max(a, b))))
+						continue;
+					link(builder, Math.min(a, b), Math.max(a, b));
+					++added;
+				}
+			}
+			
+			private long pair(int a, int b) {
+				return (long) a << 32 | b;
+			}
+		};
+	}
+	
+	/**
+	 * The LANs both families share; subclasses only say how the routers are linked.
+	 */
+	private static abstract class Generated extends Topology {
+		private final int lans,
+						  stations;
+		
+		Generated(String description, int lans, int stations) {
+			super(description);
+			this.lans = lans;
+			this.stations = stations;
+		}
+		
+		@Override
+		protected void declare(TopologyBuilder builder) {
+			for (int k = 0; k < lans; ++k) {
+				Bus bus = builder.addBus("LAN" + k);
+				for (int i = 0; i < stations; ++i)
+					bus.addNode(builder.addNode("N" + (k * stations + i)));
+				for (int i = 2 * k; i < 2 * k + 2; ++i)
+					bus.addRouter(builder.addRouter("R" + i));
+			}
+			connect(builder);
+		}
+		
+		protected abstract void connect(TopologyBuilder builder);
+		
+		protected void link(TopologyBuilder builder, int a, int b) {
+			builder.addLink("L" + a + "-" + b, "R" + a, "R" + b);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * One run's network, built element by element from a Topology. Every element is
+ * looked up by name in a hash map as it's connected, so building takes time in
+ * proportion to the number of elements and connections, however big the network is.
+ * @author Justin
+ *
+ */
+public class TopologyBuilder {
+	private final SimulationContext context;
+	private final ArrayList<Node> nodes = new ArrayList<Node>();
+	private final ArrayList<Router> routers = new ArrayList<Router>();
+	private final ArrayList<Bus> busses = new ArrayList<Bus>();		//Links too, in the order they were added.
+	private final HashMap<String, Object> elements = new HashMap<String, Object>();	//Everything so far, by name.
+	
+	public TopologyBuilder(SimulationContext context) {
+		this.context = context;
+	}
+	
+	public Node addNode(String name) {
+		return addNode(name, null);
+	}
+	
+	/**
+	 * @param traffic	How frames arrive at the node, or null for the context's default.
+	 */
+	public Node addNode(String name, TrafficModel traffic) {
+		checkNew(name);
+		Node node = new Node(name, context, traffic);
+		elements.put(name, node);
+		nodes.add(node);
+		return node;
+	}
+	
+	public Router addRouter(String name) {
+		checkNew(name);
+		Router router = new Router(name, new DijkstrasAlgorithm(context), context);
+		elements.put(name, router);
+		routers.add(router);
+		return router;
+	}
+	
+	/**
+	 * A bus with nothing on it yet; connect puts nodes and routers on it.
+	 */
+	public Bus addBus(String name) {
+		checkNew(name);
+		Bus bus = new Bus(name, context);
+		elements.put(name, bus);
+		busses.add(bus);
+		return bus;
+	}
+	
+	/**
+	 * A link between two routers already added.
+	 */
+	public Link addLink(String name, String router1, String router2) {
+		checkNew(name);
+		Link link = new Link(name, context);
+		elements.put(name, link);
+		link.addRouter(getRouter(router1));
+		link.addRouter(getRouter(router2));
+		busses.add(link);
+		return link;
+	}
+	
+	/**
+	 * Put the node or router with this name on the bus.
+	 */
+	public void connect(Bus bus, String member) {
+		Object element = elements.get(member);
+		if (element instanceof Node)
+			bus.addNode((Node) element);
+		else if (element instanceof Router)
+			bus.addRouter((Router) element);
+		else
+			throw new IllegalArgumentException("TopologyBuilder: there is no node or router " + member + ".");
+	}
+	
+	private Router getRouter(String name) {
+		Object element = elements.get(name);
+		if (!(element instanceof Router))
+			throw new IllegalArgumentException("TopologyBuilder: there is no router " + name + ".");
+		return (Router) element;
+	}
+	
+	private void checkNew(String name) {
+		if (elements.containsKey(name))
+			throw new IllegalArgumentException("TopologyBuilder: " + name + " is already taken.");
+	}
+	
+	/**
+	 * Once everything is added, tell every node who it can send to. They all share one list.
+	 */
+	void finish() {
+		for (int i = 0; i < nodes.size(); ++i)
+			nodes.get(i).setAllNodes(nodes, i);
+	}
+	
+	public ArrayList<Node> getNodes() { return nodes; }
+	public ArrayList<Router> getRouters() { return routers; }
+	public ArrayList<Bus> getBusses() { return busses; }
+}
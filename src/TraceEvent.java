@@ -0,0 +1,10 @@
+/**
+ * The things that happen to a frame at each hop, in the order they're recorded.
+ */
+public enum TraceEvent {
+	CREATE,			//The frame shows up at a node or router.
+	START_TX,		//First attempt to send it on from there.
+	FINISH_TX,		//Done putting it on the bus or link.
+	DELIVER,		//It and its ACK are done propagating; records collisions at this hop.
+	FINISH			//It reached its destination; records collisions over the whole trip.
+}
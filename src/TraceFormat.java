@@ -0,0 +1,18 @@
+/**
+ * How frame records are written out. CSV is the original one-line-per-frame text;
+ * BINARY is the fixed-width format described in BinaryTrace.
+ */
+public enum TraceFormat {
+	CSV(".csv"),
+	BINARY(".trace");
+	
+	private final String extension;
+	
+	private TraceFormat(String extension) {
+		this.extension = extension;
+	}
+	
+	public String getExtension() {
+		return extension;
+	}
+}
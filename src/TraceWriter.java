@@ -0,0 +1,290 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes frame records to disk on a background thread. The simulation renders each
+ * finished frame's record into that file's pending text (or, for a binary trace, its
+ * pending bytes), and every 64K or so the batch is handed to the writer thread through
+ * a bounded queue. The writer thread does all the writing, so the simulation only
+ * waits if the disk falls a whole queue behind. Once a batch is written its buffer
+ * comes back to be filled again, so writing records allocates nothing once every
+ * file has its buffers.
+ * @author Justin
+ *
+ */
+public class TraceWriter implements Runnable {
+	private static final int BATCH_CHARS = 1 << 16,		//hand off a file's records once this much is pending
+							 QUEUE_BATCHES = 32;		//how many batches can wait for the disk
+	
+	private final ElementRegistry registry;
+	private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_BATCHES);
+	private final BlockingQueue<StringBuilder> spareText = new ArrayBlockingQueue<StringBuilder>(QUEUE_BATCHES);
+	private final BlockingQueue<ByteBuffer> spareBytes = new ArrayBlockingQueue<ByteBuffer>(QUEUE_BATCHES);
+	private final char[] chars = new char[BATCH_CHARS];		//Only the writer thread uses it.
+	private final Thread thread;
+	private volatile boolean failed = false;
+	
+	/**
+	 * One output file, either CSV text through out or a binary trace through channel.
+	 * Only the simulation thread touches pending, pendingBytes and encoder; only the writer
+	 * thread touches out and channel once the file is open.
+	 */
+	public static class TraceFile {
+		private final String name;
+		private final Writer out;
+		private final FileChannel channel;
+		private StringBuilder pending;
+		private ByteBuffer pendingBytes;
+		private final BinaryTrace.Encoder encoder;
+		
+		private TraceFile(String name, Writer out) {
+			this.name = name;
+			this.out = out;
+			this.channel = null;
+			this.pending = new StringBuilder(BATCH_CHARS);
+			this.encoder = null;
+		}
+		
+		private TraceFile(String name, FileChannel channel) {
+			this.name = name;
+			this.out = null;
+			this.channel = channel;
+			this.pending = null;
+			this.pendingBytes = ByteBuffer.allocate(BATCH_CHARS);
+			this.encoder = new BinaryTrace.Encoder();
+		}
+		
+		private boolean isBinary() {
+			return channel != null;
+		}
+	}
+	
+	/**
+	 * Records for one file, or a signal to close it (or, with no file, to stop). Closing
+	 * a binary file also carries its row count, its tables and the element names for the
+	 * dictionary.
+	 */
+	private static class Batch {
+		private final TraceFile file;
+		private final StringBuilder text;
+		private final ByteBuffer bytes;
+		private final boolean close;
+		private final long rows;
+		private final ByteBuffer tables;
+		private final String[] names;
+		
+		private Batch(TraceFile file, StringBuilder text, ByteBuffer bytes, boolean close, long rows, ByteBuffer tables, String[] names) {
+			this.file = file;
+			this.text = text;
+			this.bytes = bytes;
+			this.close = close;
+			this.rows = rows;
+			this.tables = tables;
+			this.names = names;
+		}
+	}
+	
+	public TraceWriter(ElementRegistry registry, String threadName) {
+		this.registry = registry;
+		this.thread = new Thread(this, threadName);
+		this.thread.setDaemon(true);		//never keep the JVM up if a run dies partway
+		this.thread.start();
+	}
+	
+	/**
+	 * Open a file to append CSV records to, the same way ProgressMonitor.getWriter does.
+	 * @return	The file, or null if it can't be opened.
+	 */
+	public TraceFile open(String file) {
+		return open(file, TraceFormat.CSV);
+	}
+	
+	/**
+	 * Open a file in the given format. CSV files are appended to; a binary trace has
+	 * a header, so it always starts over.
+	 * @return	The file, or null if it can't be opened.
+	 */
+	public TraceFile open(String file, TraceFormat format) {
+		try {
+			if (format == TraceFormat.BINARY) {
+				FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				channel.position(BinaryTrace.HEADER_SIZE);		//the header is written on close
+				return new TraceFile(file, channel);
+			}
+			return new TraceFile(file, new BufferedWriter(new FileWriter(file, true), BATCH_CHARS));
+		} catch (IOException e) {
+			System.err.println("ERROR: TraceWriter: " + file + " cannot be opened.");
+			return null;
+		}
+	}
+	
+	/**
+	 * Add a finished frame's record to the file. The frame can be reused as soon as this returns.
+	 */
+	public void write(TraceFile file, Frame frame) {
+		if (file == null)
+			return;
+		
+		if (file.isBinary()) {
+			int rows = frame.getTrace().size();
+			int bytes = rows * BinaryTrace.ROW_SIZE;
+			if (file.pendingBytes.remaining() < bytes) {
+				handOff(file, false);
+				if (file.pendingBytes.capacity() < bytes)
+					file.pendingBytes = ByteBuffer.allocate(bytes);
+			}
+			file.encoder.encode(frame, file.pendingBytes);
+			return;
+		}
+		
+		frame.getTrace().appendCsv(file.pending, registry);
+		file.pending.append(System.lineSeparator());
+		if (file.pending.length() >= BATCH_CHARS)
+			handOff(file, false);
+	}
+	
+	/**
+	 * Send whatever is pending for the file, then close it.
+	 */
+	public void close(TraceFile file) {
+		if (file != null)
+			handOff(file, true);
+	}
+	
+	/**
+	 * Wait for everything handed off so far to reach the disk, and stop the writer thread.
+	 * Close every file first.
+	 */
+	public void shutdown() {
+		put(new Batch(null, null, null, true, 0, null, null));
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	public boolean hasFailed() {
+		return failed;
+	}
+	
+	private void handOff(TraceFile file, boolean close) {
+		if (file.isBinary()) {
+			ByteBuffer bytes = file.pendingBytes;
+			bytes.flip();
+			file.pendingBytes = close ? null : spareBytes();
+			put(new Batch(file, null, bytes, close, file.encoder.getRows(),
+					close ? file.encoder.tables() : null, close ? registry.getNames() : null));
+			return;
+		}
+		
+		StringBuilder text = file.pending;
+		file.pending = close ? null : spareText();
+		put(new Batch(file, text, null, close, 0, null, null));
+	}
+	
+	/**
+	 * A buffer the writer thread is done with, or a new one if none has come back yet.
+	 */
+	private StringBuilder spareText() {
+		StringBuilder text = spareText.poll();
+		return text != null ? text : new StringBuilder(BATCH_CHARS);
+	}
+	
+	private ByteBuffer spareBytes() {
+		ByteBuffer bytes = spareBytes.poll();
+		return bytes != null ? bytes : ByteBuffer.allocate(BATCH_CHARS);
+	}
+	
+	private void put(Batch batch) {
+		try {
+			queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("TraceWriter: interrupted while handing off records.", e);
+		}
+	}
+	
+	/**
+	 * The writer thread: write and close files as batches come in, until told to stop.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Batch batch;
+			try {
+				batch = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (batch.file == null)
+				return;
+			
+			try {
+				if (batch.file.isBinary())
+					writeBinary(batch);
+				else {
+					writeText(batch.file.out, batch.text);
+					if (batch.close)
+						batch.file.out.close();
+				}
+			} catch (IOException e) {
+				if (!failed)
+					System.err.println("ERROR: TraceWriter: cannot write to " + batch.file.name + ".");
+				failed = true;
+			}
+		}
+	}
+	
+	/**
+	 * Copy the text out a piece at a time, rather than making a String of it, and give
+	 * the buffer back. If enough are back already, it's dropped.
+	 */
+	private void writeText(Writer out, StringBuilder text) throws IOException {
+		for (int start = 0; start < text.length(); start += chars.length) {
+			int end = Math.min(text.length(), start + chars.length);
+			text.getChars(start, end, chars, 0);
+			out.write(chars, 0, end - start);
+		}
+		text.setLength(0);
+		spareText.offer(text);
+	}
+	
+	/**
+	 * Write a binary batch at the end of the file. On close, put the tables and the
+	 * dictionary after the last row and go back to fill in the header.
+	 */
+	private void writeBinary(Batch batch) throws IOException {
+		FileChannel channel = batch.file.channel;
+		writeFully(channel, batch.bytes);
+		if (batch.bytes.capacity() == BATCH_CHARS) {		//not one made for an unusually long frame
+			batch.bytes.clear();
+			spareBytes.offer(batch.bytes);
+		}
+		if (!batch.close)
+			return;
+		
+		long tablesOffset = channel.position();
+		writeFully(channel, batch.tables);
+		writeFully(channel, BinaryTrace.dictionary(batch.names));
+		ByteBuffer header = BinaryTrace.header(batch.rows, tablesOffset);
+		long position = 0;
+		while (header.hasRemaining())
+			position += channel.write(header, position);
+		channel.close();
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+	}
+}
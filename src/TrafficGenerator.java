@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+/**
+ * How frames arrive at a node, slot by slot. A node asks either for the arrivals in
+ * every slot (next), or, when the clock is skipping idle slots, how many empty slots
+ * to jump over (slotsUntilArrival) and then how many frames arrive in the slot it
+ * lands on (nextPositive).
+ * 
+ * The skipping methods here just draw slot by slot until something arrives, which is
+ * right for any model but slow for one that's silent for long stretches. Models that
+ * can jump ahead directly, or know they'll never send, override both of them.
+ * @author Justin
+ *
+ */
+public abstract class TrafficGenerator {
+	public static final long NEVER = Long.MAX_VALUE;		//No more frames will ever arrive.
+	protected static final long MAX_EMPTY_SLOTS = 1L << 32;	//Give up looking after this many empty slots.
+	
+	protected final SplittableRandom rand;
+	private int pending = 0;		//Arrivals in the slot slotsUntilArrival stopped at.
+	
+	/**
+	 * @param rand		The owner's random number stream.
+	 */
+	protected TrafficGenerator(SplittableRandom rand) {
+		this.rand = rand;
+	}
+	
+	/**
+	 * @return	How many frames arrive in the next slot.
+	 */
+	public abstract int next();
+	
+	/**
+	 * How many empty slots come before the next slot with at least one arrival.
+	 * @return	The number of empty slots, or NEVER.
+	 */
+	public long slotsUntilArrival() {
+		long empty = 0;
+		while ((pending = next()) == 0) 
+			if (++empty >= MAX_EMPTY_SLOTS)
+				return NEVER;
+		return empty;
+	}
+	
+	/**
+	 * @return	How many frames arrive in the slot slotsUntilArrival found; at least one.
+	 */
+	public int nextPositive() {
+		return pending;
+	}
+}
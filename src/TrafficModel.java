@@ -0,0 +1,119 @@
+import java.util.SplittableRandom;
+
+/**
+ * A kind of traffic, before any node has it: makes a TrafficGenerator for each node
+ * that uses it. The node hands over its own random number stream, so nobody else has
+ * to know how it's seeded, and one model can be shared by every node in a network.
+ *
+ * A SimulationContext has a default model (poisson(.5), what nodes have always used),
+ * and a Topology can give any of its nodes a different one.
+ * @author Justin
+ *
+ */
+public abstract class TrafficModel {
+	private final String description;
+	
+	protected TrafficModel(String description) {
+		this.description = description;
+	}
+	
+	/**
+	 * @param rand	The node's own random number stream.
+	 * @return		A new generator for one node.
+	 */
+	public abstract TrafficGenerator create(SplittableRandom rand);
+	
+	public String toString() {
+		return description;
+	}
+	
+	/**
+	 * Poisson arrivals with a mean of rate per slot.
+	 */
+	public static TrafficModel poisson(final double rate) {
+		if (rate < 0)
+			throw new IllegalArgumentException("TrafficModel: need rate >= 0.");
+		return new TrafficModel("poisson " + rate) {
+			@Override
+			public TrafficGenerator create(SplittableRandom rand) {
+				return new PoissonDistribution(rate, rand);
+			}
+		};
+	}
+	
+	/**
+	 * Poisson arrivals at onRate per slot in on periods, none in off periods; see OnOffTraffic.
+	 */
+	public static TrafficModel onOff(final double onRate, final double meanOnSlots, final double meanOffSlots) {
+		if (onRate < 0 || meanOnSlots < 1 || meanOffSlots < 1)
+			throw new IllegalArgumentException("TrafficModel: need rate >= 0 and periods of at least 1 slot.");
+		return new TrafficModel("onoff " + onRate + " " + meanOnSlots + " " + meanOffSlots) {
+			@Override
+			public TrafficGenerator create(SplittableRandom rand) {
+				return new OnOffTraffic(onRate, meanOnSlots, meanOffSlots, rand);
+			}
+		};
+	}
+	
+	/**
+	 * A Markov-modulated Poisson process; see MmppTraffic. Every create reads the arrays
+	 * again, so don't change them afterwards.
+	 */
+	public static TrafficModel mmpp(final double[] rates, final double[][] transitions, final int start) {
+		return new TrafficModel("mmpp " + rates.length + " states") {
+			@Override
+			public TrafficGenerator create(SplittableRandom rand) {
+				return new MmppTraffic(rates, transitions, start, rand);
+			}
+		};
+	}
+	
+	/**
+	 * Single frames with Pareto gaps, rate per slot on average; see ParetoTraffic.
+	 */
+	public static TrafficModel pareto(final double rate, final double shape) {
+		if (shape <= 1 || rate <= 0)
+			throw new IllegalArgumentException("TrafficModel: need shape > 1 and rate > 0.");
+		return new TrafficModel("pareto " + rate + " " + shape) {
+			@Override
+			public TrafficGenerator create(SplittableRandom rand) {
+				return new ParetoTraffic(rate, shape, rand);
+			}
+		};
+	}
+	
+	/**
+	 * Read a model the way Topology.read takes them:
+	 *
+	 * 		poisson RATE
+	 * 		onoff RATE MEAN_ON_SLOTS MEAN_OFF_SLOTS
+	 * 		pareto RATE SHAPE
+	 *
+	 * @param words		The model's name and then its numbers, and nothing else.
+	 * @throws IllegalArgumentException	if it isn't one of those, or the numbers don't make sense.
+	 */
+	public static TrafficModel parse(String[] words) {
+		if (words.length == 0)
+			throw new IllegalArgumentException("expected poisson, onoff or pareto.");
+		String name = words[0];
+		double[] numbers = new double[words.length - 1];
+		for (int i = 1; i < words.length; ++i) {
+			try {
+				numbers[i - 1] = Double.parseDouble(words[i]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(words[i] + " isn't a number.");
+			}
+		}
+	
+		if (name.equals("poisson") && numbers.length == 1)
+			return poisson(numbers[0]);
+		if (name.equals("onoff") && numbers.length == 3)
+			return onOff(numbers[0], numbers[1], numbers[2]);
+		if (name.equals("pareto") && numbers.length == 2)
+			return pareto(numbers[0], numbers[1]);
+	
+		if (name.equals("poisson") || name.equals("onoff") || name.equals("pareto"))
+			throw new IllegalArgumentException(name + " has the wrong number of parameters.");
+		throw new IllegalArgumentException("expected poisson, onoff or pareto, not " + name + ".");
+	}
+}